@@ -0,0 +1,113 @@
+package net.stoerr.ai.aigenpipeline.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Synthetic but realistically structured inputs for the benchmarks: text from a fixed vocabulary in lines of
+ * varying length, reproducible via a fixed seed so that runs can be compared.
+ */
+public class BenchmarkData {
+
+    protected static final String[] WORDS = {
+            "the", "pipeline", "generates", "code", "and", "documentation", "from", "prompt", "files", "with", "AI",
+            "each", "output", "file", "records", "a", "version", "marker", "of", "its", "inputs", "so", "that",
+            "unchanged", "outputs", "are", "not", "regenerated", "public", "class", "return", "String", "List",
+            "interface", "method", "parameter", "for", "if", "else", "while", "value", "result", "content", "// TODO",
+            "{", "}", "(", ");", "=", "+", "<!--", "-->", "#", "*", "`"
+    };
+
+    private BenchmarkData() {
+        // only static methods
+    }
+
+    /**
+     * Text of about that many characters: lines of 20 to 120 characters from {@link #WORDS}, with an empty line
+     * now and then.
+     */
+    @Nonnull
+    public static String text(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 200);
+        while (sb.length() < size) {
+            int lineLength = 20 + random.nextInt(100);
+            int lineStart = sb.length();
+            while (sb.length() - lineStart < lineLength) {
+                if (sb.length() > lineStart) {
+                    sb.append(' ');
+                }
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            sb.append('\n');
+            if (random.nextInt(8) == 0) {
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A markdown file with that many infile prompts, each with prompt text, arguments and a generated part of
+     * about outputSize characters, separated by other text.
+     */
+    @Nonnull
+    public static String fileWithInfilePrompts(int prompts, int outputSize, long seed) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Document with generated parts\n\n").append(text(2000, seed));
+        for (int i = 0; i < prompts; i++) {
+            String id = "part" + i;
+            sb.append("<!-- AIGenPromptStart(").append(id).append(")\n")
+                    .append(text(400, seed + 3 * i + 1))
+                    .append("AIGenCommand(").append(id).append(")\n")
+                    .append("-m gpt-4o -hint hints.md src/main/java/Foo").append(i).append(".java\n")
+                    .append("AIGenPromptEnd(").append(id).append(") -->\n")
+                    .append(text(outputSize, seed + 3 * i + 2))
+                    .append("\n<!-- AIGenVersion(1a2b3c4d, prompt.md-5e6f7a8b, Foo").append(i)
+                    .append(".java-9c0d1e2f) -->\n")
+                    .append("<!-- AIGenEnd(").append(id).append(") -->\n")
+                    .append(text(1000, seed + 3 * i + 3));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a temporary directory - to be removed with {@link #deleteRecursively(Path)}.
+     */
+    @Nonnull
+    public static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("aigenpipeline-benchmark");
+    }
+
+    public static void write(@Nonnull Path file, @Nonnull String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void deleteRecursively(@Nonnull Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
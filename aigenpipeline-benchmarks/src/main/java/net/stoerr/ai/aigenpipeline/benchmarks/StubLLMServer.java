@@ -0,0 +1,327 @@
+package net.stoerr.ai.aigenpipeline.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server on the loopback interface that answers like an LLM: {@value #OPENAI_PATH} in the
+ * OpenAI chat completions format and {@value #ANTHROPIC_PATH} in the Anthropic messages format, both also streaming
+ * if the request says "stream": true. The answers are synthetic text of a configurable size, after a configurable
+ * latency with jitter; a configurable fraction of the requests fails with status 529 (overloaded) and a retry-after-ms
+ * header, as real APIs do under load. It counts requests, failures and the connections used, so that connection reuse
+ * can be checked.
+ */
+public class StubLLMServer implements AutoCloseable {
+
+    public static final String OPENAI_PATH = "/v1/chat/completions";
+    public static final String ANTHROPIC_PATH = "/v1/messages";
+
+    protected long latencyMillis = 0;
+    protected long jitterMillis = 0;
+    protected double errorRate = 0;
+    protected long retryAfterMillis = 100;
+    protected int responseSize = 2000;
+
+    protected HttpServer server;
+    protected ExecutorService executor;
+
+    protected final AtomicInteger requests = new AtomicInteger();
+    protected final AtomicInteger failures = new AtomicInteger();
+    protected final AtomicLong bytesReceived = new AtomicLong();
+    /**
+     * The remote addresses seen - each is a separate connection.
+     */
+    protected final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Minimum time until the response is sent, in milliseconds. Default 0.
+     */
+    public StubLLMServer latency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * A random time between 0 and this is added to the {@link #latency(long)}. Default 0.
+     */
+    public StubLLMServer jitter(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * Fraction of requests that fail with status 529, between 0 and 1. Default 0.
+     */
+    public StubLLMServer errorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate has to be between 0 and 1: " + errorRate);
+        }
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * The retry-after-ms header sent with failures. Default 100.
+     */
+    public StubLLMServer retryAfter(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+        return this;
+    }
+
+    /**
+     * Approximate size of the answers in characters. Default 2000.
+     */
+    public StubLLMServer responseSize(int responseSize) {
+        this.responseSize = responseSize;
+        return this;
+    }
+
+    /**
+     * Starts the server on a free port.
+     */
+    public StubLLMServer start() throws IOException {
+        // otherwise the body waits for the ACK of the separately sent headers - about 40ms on Linux.
+        // This is read once when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // requests wait for their latency in their own thread, so they don't delay each other.
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "StubLLMServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(OPENAI_PATH, exchange -> handle(exchange, false));
+        server.createContext(ANTHROPIC_PATH, exchange -> handle(exchange, true));
+        server.start();
+        return this;
+    }
+
+    /**
+     * The URL to use for the requests in the OpenAI or the Anthropic format.
+     */
+    @Nonnull
+    public String getUrl(boolean anthropic) {
+        return "http://localhost:" + server.getAddress().getPort() + (anthropic ? ANTHROPIC_PATH : OPENAI_PATH);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void reset() {
+        requests.set(0);
+        failures.set(0);
+        bytesReceived.set(0);
+        connections.clear();
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    protected void handle(HttpExchange exchange, boolean anthropic) throws IOException {
+        try {
+            requests.incrementAndGet();
+            connections.add(exchange.getRemoteAddress());
+            byte[] requestBody = exchange.getRequestBody().readAllBytes();
+            bytesReceived.addAndGet(requestBody.length);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                exchange.getResponseHeaders().add("retry-after-ms", String.valueOf(retryAfterMillis));
+                send(exchange, 529, "application/json",
+                        "{\"type\": \"error\", \"error\": {\"type\": \"overloaded_error\", \"message\": \"Overloaded\"}}");
+                return;
+            }
+            JsonObject request = JsonParser.parseString(new String(requestBody, StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+            boolean stream = request.has("stream") && request.get("stream").getAsBoolean();
+            long inputTokens = requestBody.length / 4;
+            String text = BenchmarkData.text(responseSize, random.nextLong());
+            long outputTokens = text.length() / 4;
+            if (stream) {
+                send(exchange, 200, "text/event-stream", anthropic ?
+                        anthropicEvents(text, inputTokens, outputTokens) : openAIEvents(text, inputTokens, outputTokens));
+            } else {
+                send(exchange, 200, "application/json", anthropic ?
+                        anthropicResponse(text, inputTokens, outputTokens) : openAIResponse(text, inputTokens, outputTokens));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            JsonObject error = new JsonObject();
+            error.addProperty("error", "Invalid request: " + e);
+            send(exchange, 400, "application/json", error.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    protected void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    protected String openAIResponse(String text, long inputTokens, long outputTokens) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", text);
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject response = new JsonObject();
+        response.addProperty("object", "chat.completion");
+        response.add("choices", choices);
+        response.add("usage", usage("prompt_tokens", inputTokens, "completion_tokens", outputTokens));
+        return response.toString();
+    }
+
+    protected String anthropicResponse(String text, long inputTokens, long outputTokens) {
+        JsonObject content = new JsonObject();
+        content.addProperty("type", "text");
+        content.addProperty("text", text);
+        JsonArray contents = new JsonArray();
+        contents.add(content);
+        JsonObject response = new JsonObject();
+        response.addProperty("type", "message");
+        response.addProperty("role", "assistant");
+        response.add("content", contents);
+        response.addProperty("stop_reason", "end_turn");
+        response.add("usage", usage("input_tokens", inputTokens, "output_tokens", outputTokens));
+        return response.toString();
+    }
+
+    protected String openAIEvents(String text, long inputTokens, long outputTokens) {
+        StringBuilder events = new StringBuilder();
+        for (String chunk : chunks(text)) {
+            JsonObject delta = new JsonObject();
+            delta.addProperty("content", chunk);
+            events.append(event(null, openAIChoice(delta, null)));
+        }
+        JsonObject last = openAIChoice(new JsonObject(), "stop");
+        last.add("usage", usage("prompt_tokens", inputTokens, "completion_tokens", outputTokens));
+        events.append(event(null, last));
+        events.append("data: [DONE]\n\n");
+        return events.toString();
+    }
+
+    protected JsonObject openAIChoice(JsonObject delta, String finishReason) {
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("delta", delta);
+        if (finishReason != null) {
+            choice.addProperty("finish_reason", finishReason);
+        }
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject chunk = new JsonObject();
+        chunk.add("choices", choices);
+        return chunk;
+    }
+
+    protected String anthropicEvents(String text, long inputTokens, long outputTokens) {
+        StringBuilder events = new StringBuilder();
+        JsonObject start = new JsonObject();
+        start.addProperty("type", "message_start");
+        events.append(event("message_start", start));
+        for (String chunk : chunks(text)) {
+            JsonObject delta = new JsonObject();
+            delta.addProperty("type", "text_delta");
+            delta.addProperty("text", chunk);
+            JsonObject blockDelta = new JsonObject();
+            blockDelta.addProperty("type", "content_block_delta");
+            blockDelta.addProperty("index", 0);
+            blockDelta.add("delta", delta);
+            events.append(event("content_block_delta", blockDelta));
+        }
+        JsonObject delta = new JsonObject();
+        delta.addProperty("stop_reason", "end_turn");
+        JsonObject messageDelta = new JsonObject();
+        messageDelta.addProperty("type", "message_delta");
+        messageDelta.add("delta", delta);
+        messageDelta.add("usage", usage("input_tokens", inputTokens, "output_tokens", outputTokens));
+        events.append(event("message_delta", messageDelta));
+        JsonObject stop = new JsonObject();
+        stop.addProperty("type", "message_stop");
+        events.append(event("message_stop", stop));
+        return events.toString();
+    }
+
+    protected String event(String type, JsonElement data) {
+        return (type != null ? "event: " + type + "\n" : "") + "data: " + data + "\n\n";
+    }
+
+    /**
+     * Splits the text into pieces of about the size of the tokens.
+     */
+    protected List<String> chunks(String text) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += 16) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + 16)));
+        }
+        return chunks;
+    }
+
+    protected JsonObject usage(String inputName, long inputTokens, String outputName, long outputTokens) {
+        JsonObject usage = new JsonObject();
+        usage.addProperty(inputName, inputTokens);
+        usage.addProperty(outputName, outputTokens);
+        return usage;
+    }
+
+}
@@ -0,0 +1,269 @@
+package net.stoerr.ai.aigenpipeline.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Generates a directory tree like a large repository using infile prompts, to test how the pipeline scales:
+ * <ul>
+ *     <li>markdown files with {@link #promptsPerFile(int)} AIGenPromptStart / AIGenCommand blocks each, in
+ *     modules/directories/files with {@link #directoryFanout(int)} entries per level;</li>
+ *     <li>the files are in {@link #depth(int)} levels: the prompts in level 0 use plain source files as inputs, those
+ *     in the other levels files of lower levels, at least one of the level directly below, so the dependency graph
+ *     has that depth. Each prompt has {@link #fanIn(int)} inputs, and each used file is input for about
+ *     {@link #fanOut(int)} prompts;</li>
+ *     <li>{@link #sharedPrompts(int)} prompt files in a prompts directory, which each prompt uses one of;</li>
+ *     <li>.aigenpipeline configuration files at the root (which stops the scan for further configuration files), in
+ *     each module and in every third directory below that, which set keys used in the prompt files.</li>
+ * </ul>
+ * The AIGenCommand lines don't contain a model, so that is given on the command line, e.g. with -os '**&#47;*.md'.
+ * The generated parts contain text without version marker, so all tasks need to run initially. The generation is
+ * reproducible for the same settings and {@link #seed(long)}.
+ * <p>
+ * Can also be run from the command line: java -cp aigenpipeline-benchmarks/target/aigenpipeline-benchmarks-*.jar
+ * net.stoerr.ai.aigenpipeline.benchmarks.SyntheticRepository targetdir tasks [promptsPerFile depth fanIn fanOut]
+ */
+public class SyntheticRepository {
+
+    public static final String PROMPTS_DIR = "prompts";
+
+    protected int tasks = 1000;
+    protected int promptsPerFile = 2;
+    protected int depth = 4;
+    protected int fanIn = 2;
+    protected int fanOut = 2;
+    protected int directoryFanout = 10;
+    protected int sharedPrompts = 5;
+    protected int outputSize = 2000;
+    protected int inputSize = 3000;
+    protected long seed = 42;
+
+    protected int edges;
+    protected final List<String> files = new ArrayList<>();
+
+    /**
+     * Total number of infile prompts. Default 1000.
+     */
+    public SyntheticRepository tasks(int tasks) {
+        this.tasks = tasks;
+        return this;
+    }
+
+    /**
+     * Number of infile prompts per file - the last file can have less. Default 2.
+     */
+    public SyntheticRepository promptsPerFile(int promptsPerFile) {
+        this.promptsPerFile = promptsPerFile;
+        return this;
+    }
+
+    /**
+     * Number of levels of the dependency graph. Default 4.
+     */
+    public SyntheticRepository depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Number of input files per prompt. Default 2.
+     */
+    public SyntheticRepository fanIn(int fanIn) {
+        this.fanIn = fanIn;
+        return this;
+    }
+
+    /**
+     * The average number of prompts a generated file is input for, as far as it is used at all. Default 2.
+     */
+    public SyntheticRepository fanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Number of files per directory and directories per module. Default 10.
+     */
+    public SyntheticRepository directoryFanout(int directoryFanout) {
+        this.directoryFanout = directoryFanout;
+        return this;
+    }
+
+    /**
+     * Number of prompt files shared by the prompts. Default 5.
+     */
+    public SyntheticRepository sharedPrompts(int sharedPrompts) {
+        this.sharedPrompts = sharedPrompts;
+        return this;
+    }
+
+    /**
+     * Approximate size of the generated part of each prompt in characters. Default 2000.
+     */
+    public SyntheticRepository outputSize(int outputSize) {
+        this.outputSize = outputSize;
+        return this;
+    }
+
+    /**
+     * Approximate size of the plain source files in characters. Default 3000.
+     */
+    public SyntheticRepository inputSize(int inputSize) {
+        this.inputSize = inputSize;
+        return this;
+    }
+
+    public SyntheticRepository seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the tree into the directory.
+     */
+    public SyntheticRepository generate(@Nonnull Path root) throws IOException {
+        if (tasks < 1 || promptsPerFile < 1 || depth < 1 || fanIn < 1 || fanOut < 1 || directoryFanout < 1 ||
+                sharedPrompts < 1) {
+            throw new IllegalArgumentException("All sizes have to be positive: " + this);
+        }
+        Random random = new Random(seed);
+        files.clear();
+        edges = 0;
+        int fileCount = (tasks + promptsPerFile - 1) / promptsPerFile;
+        for (int i = 0; i < fileCount; i++) {
+            files.add(filePath(i));
+        }
+
+        BenchmarkData.write(root.resolve(".aigenpipeline"), "# configuration for the whole synthetic project\n" +
+                "-k project=synthetic" + seed + "\n\n# Don't look for further configuration files\n-cn\n");
+        for (int p = 0; p < sharedPrompts; p++) {
+            BenchmarkData.write(root.resolve(PROMPTS_DIR).resolve("shared" + p + ".txt"),
+                    "Rules for ${project} in ${module}:\n" + BenchmarkData.text(600, random.nextLong()));
+        }
+        for (int i = 0; i < fileCount; i++) {
+            Path dir = root.resolve(files.get(i)).getParent();
+            if (i % directoryFanout == 0) { // first file in a directory
+                int dirIndex = i / directoryFanout;
+                if (dirIndex % directoryFanout == 0) {
+                    Path moduleDir = dir.getParent().getParent();
+                    BenchmarkData.write(moduleDir.resolve(".aigenpipeline"),
+                            "-k module=" + moduleDir.getFileName() + "\n");
+                }
+                if (dirIndex % 3 == 0) {
+                    BenchmarkData.write(dir.resolve(".aigenpipeline"), "-k area=" + dir.getFileName() + "\n");
+                }
+            }
+            BenchmarkData.write(root.resolve(files.get(i)), fileContent(root, i, fileCount, random));
+        }
+        return this;
+    }
+
+    /**
+     * The level of the file in the dependency graph - interleaved, so that all levels are in all modules.
+     */
+    protected int level(int file) {
+        return file % depth;
+    }
+
+    protected String filePath(int file) {
+        int dir = file / directoryFanout;
+        int module = dir / directoryFanout;
+        return "module" + module + "/src/dir" + dir + "/file" + file + ".md";
+    }
+
+    protected String fileContent(Path root, int file, int fileCount, Random random) throws IOException {
+        Path dir = root.resolve(files.get(file)).getParent();
+        StringBuilder content = new StringBuilder("# Synthetic file " + file + "\n\n")
+                .append(BenchmarkData.text(500, random.nextLong()));
+        int prompts = Math.min(promptsPerFile, tasks - file * promptsPerFile);
+        for (int p = 0; p < prompts; p++) {
+            String id = "gen" + p;
+            List<String> inputs = new ArrayList<>();
+            if (level(file) == 0) {
+                for (int i = 0; i < fanIn; i++) {
+                    String source = "file" + file + "-source" + p + "-" + i + ".txt";
+                    BenchmarkData.write(dir.resolve(source), BenchmarkData.text(inputSize, random.nextLong()));
+                    inputs.add(source);
+                }
+            } else {
+                for (int i = 0; i < fanIn; i++) {
+                    int input = chooseInput(file, i == 0, fileCount, random);
+                    String path = dir.relativize(root.resolve(files.get(input))).toString().replace('\\', '/');
+                    if (!inputs.contains(path)) {
+                        inputs.add(path);
+                        edges++;
+                    }
+                }
+            }
+            String sharedPrompt = dir.relativize(root.resolve(PROMPTS_DIR)
+                    .resolve("shared" + random.nextInt(sharedPrompts) + ".txt")).toString().replace('\\', '/');
+            content.append("\n<!-- AIGenPromptStart(").append(id).append(")\n")
+                    .append("Create part ").append(p).append(" of file ").append(file).append(" from the inputs.\n")
+                    .append(BenchmarkData.text(300, random.nextLong()))
+                    .append("AIGenCommand(").append(id).append(")\n")
+                    .append("-p ").append(sharedPrompt).append(" ").append(String.join(" ", inputs)).append("\n")
+                    .append("AIGenPromptEnd(").append(id).append(") -->\n")
+                    .append(BenchmarkData.text(outputSize, random.nextLong()))
+                    .append("<!-- AIGenEnd(").append(id).append(") -->\n\n")
+                    .append(BenchmarkData.text(300, random.nextLong()));
+        }
+        return content.toString();
+    }
+
+    /**
+     * Chooses a file of a lower level as input: from the level directly below if required, otherwise from any lower
+     * level. Only so many files of a level are used that each is used by about {@link #fanOut} prompts.
+     */
+    protected int chooseInput(int file, boolean fromLevelBelow, int fileCount, Random random) {
+        int level = level(file);
+        int inputLevel = fromLevelBelow ? level - 1 : random.nextInt(level);
+        int filesInLevel = (fileCount - inputLevel + depth - 1) / depth;
+        int consumers = Math.max(1, (fileCount - level + depth - 1) / depth * promptsPerFile * fanIn / level);
+        int used = Math.max(1, Math.min(filesInLevel, consumers / fanOut));
+        return inputLevel + depth * random.nextInt(used);
+    }
+
+    /**
+     * The generated files with infile prompts, relative to the root, after {@link #generate(Path)}.
+     */
+    @Nonnull
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * The number of dependencies between the generated files, after {@link #generate(Path)}.
+     */
+    public int getEdges() {
+        return edges;
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticRepository [tasks=" + tasks + ", promptsPerFile=" + promptsPerFile + ", depth=" + depth +
+                ", fanIn=" + fanIn + ", fanOut=" + fanOut + ", directoryFanout=" + directoryFanout +
+                ", sharedPrompts=" + sharedPrompts + ", seed=" + seed + "]";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Arguments: targetdir tasks [promptsPerFile depth fanIn fanOut]");
+            System.exit(1);
+        }
+        SyntheticRepository repository = new SyntheticRepository().tasks(Integer.parseInt(args[1]));
+        if (args.length > 2) repository.promptsPerFile(Integer.parseInt(args[2]));
+        if (args.length > 3) repository.depth(Integer.parseInt(args[3]));
+        if (args.length > 4) repository.fanIn(Integer.parseInt(args[4]));
+        if (args.length > 5) repository.fanOut(Integer.parseInt(args[5]));
+        repository.generate(Paths.get(args[0]));
+        System.out.println("Generated " + repository.getFiles().size() + " files with " + repository.getEdges() +
+                " dependencies: " + repository);
+    }
+
+}
@@ -0,0 +1,259 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+import net.stoerr.ai.aigenpipeline.benchmarks.StubLLMServer;
+import net.stoerr.ai.aigenpipeline.benchmarks.SyntheticRepository;
+import net.stoerr.ai.aigenpipeline.framework.task.FileContentCache;
+
+/**
+ * End-to-end benchmark: runs {@link AIGenPipeline} with -os over a {@link SyntheticRepository} against
+ * a {@link StubLLMServer}, and reports tasks per second, the median and 99th percentile of the task latencies and the
+ * peak heap usage, as well as the requests and connections the stub server saw. Each run is done on a fresh tree, and
+ * then repeated on the same tree where all outputs are up to date, which measures the overhead of the version checks.
+ * Since everything is local and the data is generated with fixed seeds, the numbers are comparable between versions.
+ * <p>
+ * Run with java -cp aigenpipeline-benchmarks/target/aigenpipeline-benchmarks-*.jar
+ * net.stoerr.ai.aigenpipeline.commandline.PipelineThroughputBenchmark [options] [-- pipeline arguments] ;
+ * the pipeline arguments are added to those for the output scan, e.g. -j 8 for parallel execution.
+ */
+public class PipelineThroughputBenchmark {
+
+    protected final SyntheticRepository repository = new SyntheticRepository().tasks(200);
+    protected int warmupRuns = 1;
+    protected int runs = 3;
+    protected boolean anthropic;
+    protected final StubLLMServer server = new StubLLMServer();
+    protected final List<String> pipelineArgs = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        PipelineThroughputBenchmark benchmark = new PipelineThroughputBenchmark();
+        try {
+            benchmark.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Options: --tasks N, --prompts N (per file), --depth N, --fan-in N, --fan-out N, " +
+                    "--output-size chars, --latency ms, --jitter ms, --error-rate 0..1, --response-size chars, " +
+                    "--anthropic, --warmup N, --runs N, -- pipeline arguments");
+            System.exit(1);
+        }
+        benchmark.run();
+    }
+
+    protected void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--".equals(arg)) {
+                pipelineArgs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                return;
+            }
+            if ("--anthropic".equals(arg)) {
+                anthropic = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--tasks":
+                    repository.tasks(Integer.parseInt(value));
+                    break;
+                case "--prompts":
+                    repository.promptsPerFile(Integer.parseInt(value));
+                    break;
+                case "--depth":
+                    repository.depth(Integer.parseInt(value));
+                    break;
+                case "--fan-in":
+                    repository.fanIn(Integer.parseInt(value));
+                    break;
+                case "--fan-out":
+                    repository.fanOut(Integer.parseInt(value));
+                    break;
+                case "--output-size":
+                    repository.outputSize(Integer.parseInt(value));
+                    break;
+                case "--latency":
+                    server.latency(Long.parseLong(value));
+                    break;
+                case "--jitter":
+                    server.jitter(Long.parseLong(value));
+                    break;
+                case "--error-rate":
+                    server.errorRate(Double.parseDouble(value));
+                    break;
+                case "--response-size":
+                    server.responseSize(Integer.parseInt(value));
+                    break;
+                case "--warmup":
+                    warmupRuns = Integer.parseInt(value);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    protected void run() throws IOException {
+        FileContentCache.setEnabled(true);
+        Logger.getLogger("").setLevel(Level.WARNING); // the task logs would distort the timing
+        server.start();
+        try {
+            System.out.println(repository + ", pipeline arguments: " + pipelineArgs);
+            System.out.println(String.format(Locale.ROOT, "%-9s %7s %9s %9s %9s %9s %9s %9s %8s %8s %11s",
+                    "run", "tasks", "failed", "wall ms", "tasks/s", "p50 ms", "p99 ms", "heap MB",
+                    "requests", "errors", "connections"));
+            for (int i = 0; i < warmupRuns + runs; i++) {
+                String label = i < warmupRuns ? "warmup" : "run " + (i - warmupRuns + 1);
+                Path dir = BenchmarkData.createTempDirectory();
+                try {
+                    repository.seed(i).generate(dir);
+                    System.out.println(measure(dir, label).format());
+                    System.out.println(measure(dir, "  rerun").format());
+                } finally {
+                    BenchmarkData.deleteRecursively(dir);
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    protected Result measure(Path dir, String label) throws IOException {
+        List<String> args = new ArrayList<>(List.of("-os", "**/*.md", "-u", server.getUrl(anthropic),
+                "-m", "stub-model"));
+        args.addAll(pipelineArgs);
+        Result result = new Result(label);
+        server.reset();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        TimedPipeline pipeline = new TimedPipeline(dir.toFile(), discard, System.err, result);
+        long start = System.nanoTime();
+        try {
+            int status = pipeline.run(args.toArray(new String[0]));
+            if (status != 0) {
+                result.error = "exit status " + status;
+            }
+        } catch (RuntimeException e) {
+            result.error = e.toString();
+        }
+        result.wallNanos = System.nanoTime() - start;
+        // the sum of the peaks of the pools is an upper bound, since they might have been at different times.
+        result.peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        result.requests = server.getRequests();
+        result.serverErrors = server.getFailures();
+        result.connections = server.getConnections();
+        return result;
+    }
+
+    /**
+     * A pipeline whose tasks record their execution time.
+     */
+    protected static class TimedPipeline extends AIGenPipeline {
+
+        protected final Result result;
+
+        protected TimedPipeline(@Nonnull File workDir, @Nonnull PrintStream out, @Nonnull PrintStream err,
+                                @Nonnull Result result) {
+            super(workDir, Map.of(), InputStream.nullInputStream(), out, err);
+            this.result = result;
+        }
+
+        @Override
+        protected AIGenPipeline makeSubPipeline(@Nonnull File workDir) {
+            TimedPipeline subPipeline = new TimedPipeline(workDir, out, err, result);
+            subPipeline.configFileCache = configFileCache;
+            subPipeline.infilePromptFiles = infilePromptFiles;
+            subPipeline.taskReport = taskReport;
+            return subPipeline;
+        }
+
+        @Override
+        protected void executeTask() {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                super.executeTask();
+                failed = false;
+            } finally {
+                result.addTask(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    protected static class Result {
+        protected final String label;
+        protected final List<Long> taskNanos = Collections.synchronizedList(new ArrayList<>());
+        protected volatile int failedTasks;
+        protected long wallNanos;
+        protected long peakHeap;
+        protected int requests;
+        protected int serverErrors;
+        protected int connections;
+        protected String error;
+
+        protected Result(String label) {
+            this.label = label;
+        }
+
+        protected synchronized void addTask(long nanos, boolean failed) {
+            taskNanos.add(nanos);
+            if (failed) {
+                failedTasks++;
+            }
+        }
+
+        /**
+         * The percentile of the task latencies in milliseconds, nearest rank method.
+         */
+        protected double percentileMillis(double percentile) {
+            List<Long> sorted = new ArrayList<>(taskNanos);
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+            return sorted.get(Math.max(0, rank - 1)) / 1e6;
+        }
+
+        protected String format() {
+            int tasks = taskNanos.size();
+            double wallMillis = wallNanos / 1e6;
+            return String.format(Locale.ROOT, "%-9s %7d %9d %9.0f %9.1f %9.1f %9.1f %9.1f %8d %8d %11d",
+                    label, tasks, failedTasks, wallMillis, tasks / (wallMillis / 1000), percentileMillis(50),
+                    percentileMillis(99), peakHeap / (1024.0 * 1024), requests, serverErrors, connections) +
+                    (error != null ? "  " + error : "");
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ordering the tasks of a run by their dependencies: each task depends on a few earlier ones, as outputs are inputs
+ * of later tasks. Includes adding the edges, as {@link AIDepDiagram} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopoSortBenchmark {
+
+    @Param({"100", "10000"})
+    public int nodes;
+
+    protected String[] names;
+    protected int[] edgeFrom;
+    protected int[] edgeTo;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        names = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            names[i] = "src/main/java/generated/File" + i + ".java";
+        }
+        int edges = nodes * 3;
+        edgeFrom = new int[edges];
+        edgeTo = new int[edges];
+        for (int i = 0; i < edges; i++) {
+            int to = 1 + random.nextInt(nodes - 1);
+            edgeTo[i] = to;
+            edgeFrom[i] = random.nextInt(to);
+        }
+    }
+
+    @Benchmark
+    public List<String> sort() throws TopoSort.TopoSortCycleException {
+        TopoSort<String> topoSort = new TopoSort<>();
+        for (String name : names) {
+            topoSort.addNode(name);
+        }
+        for (int i = 0; i < edgeFrom.length; i++) {
+            topoSort.addEdge(names[edgeFrom[i]], names[edgeTo[i]]);
+        }
+        return topoSort.sort();
+    }
+
+}
@@ -0,0 +1,73 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+
+/**
+ * Creating the request JSON for a typical task - system message, some input files, the prompt - and extracting the
+ * answer from a response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenAIChatBuilderImplBenchmark {
+
+    protected OpenAIChatBuilderImpl chatBuilder;
+    protected String response;
+
+    @Setup
+    public void setUp() {
+        chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.model("gpt-4o").maxTokens(4096).systemMsg(BenchmarkData.text(1500, 1));
+        for (int i = 0; i < 3; i++) {
+            chatBuilder.userMsg("Print the file input" + i + ".java");
+            chatBuilder.assistantMsg(BenchmarkData.text(20000, 10 + i));
+        }
+        chatBuilder.userMsg(BenchmarkData.text(3000, 2));
+
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", "```java\n" + BenchmarkData.text(12000, 3) + "```");
+        JsonObject choice = new JsonObject();
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", 17000);
+        usage.addProperty("completion_tokens", 3000);
+        JsonObject json = new JsonObject();
+        json.add("choices", choices);
+        json.add("usage", usage);
+        response = json.toString();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return chatBuilder.toJson();
+    }
+
+    @Benchmark
+    public String extractResponse() {
+        return chatBuilder.extractResponse(response);
+    }
+
+}
@@ -0,0 +1,80 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+
+/**
+ * The version checks: hashing the inputs and finding the version marker in an output, and removing the clutter from
+ * prompts. The sizes are those of a typical prompt file and a large source file as input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AIVersionMarkerBenchmark {
+
+    @Param({"2000", "200000"})
+    public int size;
+
+    protected String content;
+    protected String contentWithMarker;
+    protected Path dir;
+    protected Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        content = BenchmarkData.text(size, 42);
+        contentWithMarker = "/* Copyright 2024 the authors - licensed under the Apache License */\n" + content +
+                "\n<!-- AIGenVersion(1a2b3c4d, prompt.md-5e6f7a8b, input.java-9c0d1e2f) -->\n";
+        dir = BenchmarkData.createTempDirectory();
+        file = dir.resolve("input.txt");
+        BenchmarkData.write(file, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String shaHashString() {
+        return AIVersionMarker.shaHash(content);
+    }
+
+    @Benchmark
+    public String shaHashFile() throws IOException {
+        return AIVersionMarker.shaHash(file);
+    }
+
+    /**
+     * The marker is at the end, as for most file types.
+     */
+    @Benchmark
+    public AIVersionMarker find() {
+        return AIVersionMarker.find(contentWithMarker);
+    }
+
+    @Benchmark
+    public String unclutter() {
+        return AIGenerationTask.unclutter(contentWithMarker);
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+
+/**
+ * The scan of -os: finding the files containing infile prompts in a directory tree in which only few files contain
+ * them. After the first iteration the files are in the operating system's cache, as in repeated runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileLookupHelperBenchmark {
+
+    @Param({"1000"})
+    public int files;
+
+    protected Path dir;
+    protected FileLookupHelper helper;
+
+    @Setup
+    public void setUp() throws IOException {
+        FileContentCache.setEnabled(false);
+        dir = BenchmarkData.createTempDirectory();
+        for (int i = 0; i < files; i++) {
+            Path file = dir.resolve("module" + (i % 10) + "/src/dir" + (i % 37) + "/file" + i + ".md");
+            String content = i % 50 == 0 ? BenchmarkData.fileWithInfilePrompts(2, 2000, i) :
+                    BenchmarkData.text(2000 + (i % 7) * 3000, i);
+            BenchmarkData.write(file, content);
+        }
+        helper = FileLookupHelper.fromPath(dir.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<File> filesContaining() {
+        return helper.filesContaining(".", "**/*.md", SegmentedFile.AIGENPROMPTSTART,
+                SegmentedFile.REGEX_AIGENPROMPTSTART, true);
+    }
+
+}
@@ -0,0 +1,85 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+
+/**
+ * Parsing files with infile prompts, one prompt at a time with {@link SegmentedFile} and all at once with
+ * {@link InfilePromptFile}, and writing a segment. The {@link FileContentCache} is disabled, as on a first read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentedFileBenchmark {
+
+    /**
+     * Number of infile prompts in the file.
+     */
+    @Param({"1", "30"})
+    public int prompts;
+
+    protected Path dir;
+    protected File file;
+    protected File writtenFile;
+    protected SegmentedFile writtenSegmentedFile;
+    protected String[] outputs;
+    protected int writeCount;
+
+    @Setup
+    public void setUp() throws IOException {
+        FileContentCache.setEnabled(false);
+        dir = BenchmarkData.createTempDirectory();
+        String content = BenchmarkData.fileWithInfilePrompts(prompts, 3000, 42);
+        file = dir.resolve("prompts.md").toFile();
+        BenchmarkData.write(file.toPath(), content);
+        writtenFile = dir.resolve("written.md").toFile();
+        BenchmarkData.write(writtenFile.toPath(), content);
+        writtenSegmentedFile = new SegmentedFile(writtenFile, SegmentedFile.infilePrompting("part0"));
+        // alternating, since writing identical content is skipped
+        outputs = new String[]{BenchmarkData.text(3000, 1), BenchmarkData.text(3000, 2)};
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    /**
+     * Parses the file for the last prompt, as was done for each prompt separately.
+     */
+    @Benchmark
+    public String parseOnePrompt() throws IOException {
+        return new SegmentedFile(file, SegmentedFile.infilePrompting("part" + (prompts - 1))).getSegment(2);
+    }
+
+    @Benchmark
+    public SegmentedFile parseAllPrompts() throws IOException {
+        return new InfilePromptFile(file).getPrompt("part" + (prompts - 1));
+    }
+
+    @Benchmark
+    public void writeSegment() throws IOException {
+        writtenSegmentedFile.writeSegment(3, outputs[writeCount++ & 1]);
+    }
+
+}
@@ -0,0 +1,78 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.stoerr.ai.aigenpipeline.benchmarks.BenchmarkData;
+import net.stoerr.ai.aigenpipeline.benchmarks.StubLLMServer;
+import net.stoerr.ai.aigenpipeline.benchmarks.SyntheticRepository;
+
+/**
+ * Runs -os over a {@link SyntheticRepository} with a thousand tasks against a {@link StubLLMServer}. Since that
+ * takes a while, it is only run with mvn test -DscaleTests .
+ */
+public class OutputScanScaleTest {
+
+    private final Path dir = Paths.get("target/test-outputscan-scale").toAbsolutePath();
+    private final Logger rootLogger = Logger.getLogger("");
+    private Level logLevel;
+    private StubLLMServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        logLevel = rootLogger.getLevel();
+        rootLogger.setLevel(Level.WARNING); // a thousand tasks log a lot
+        BenchmarkData.deleteRecursively(dir);
+        server = new StubLLMServer().responseSize(500).start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        rootLogger.setLevel(logLevel);
+    }
+
+    @Test
+    public void generatesAllAndThenNothing() throws IOException {
+        SyntheticRepository repository = new SyntheticRepository().tasks(1000).depth(5).fanIn(3).generate(dir);
+        String[] args = {"-cne", "-os", "**/*.md", "-u", server.getUrl(false), "-m", "stub", "-j", "4"};
+
+        run(args);
+        assertEquals(1000, server.getRequests());
+        int versionMarkers = 0;
+        for (String file : repository.getFiles()) {
+            versionMarkers += Files.readString(dir.resolve(file)).split("AIGenVersion\\(", -1).length - 1;
+        }
+        assertEquals(1000, versionMarkers);
+
+        // if a task had run before a task generating one of its inputs, it would be outdated now.
+        server.reset();
+        run(args);
+        assertEquals(0, server.getRequests());
+    }
+
+    private void run(String[] args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream printStream = new PrintStream(out, true, StandardCharsets.UTF_8);
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                printStream, printStream);
+        int status = p.run(args);
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+    }
+
+}
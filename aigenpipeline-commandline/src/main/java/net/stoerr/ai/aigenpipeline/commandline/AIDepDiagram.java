@@ -4,9 +4,13 @@ import java.io.File;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -53,10 +57,10 @@ public class AIDepDiagram {
     }
 
     protected String idForInOut(AIInOut inout) {
-        String path = inout.getFile().getAbsolutePath();
+        String path = inout.getFile().toPath().toAbsolutePath().normalize().toString();
         String id = pathToId.get(path);
         if (null == id) {
-            id = "F" + String.valueOf(1000 + nextId++).substring(1);
+            id = String.format("F%03d", nextId++); // more digits if there are more than 999 files
             pathToId.put(path, id);
         }
         return id;
@@ -96,8 +100,7 @@ public class AIDepDiagram {
             throw new IllegalArgumentException("Cycle detected involving file " + involvedFile.getAbsolutePath());
         }
 
-        Map<String, List<AIGenPipeline>> outIdToPipelines = new HashMap<>();
-        List<AIGenPipeline> remainingPipelines = new ArrayList<>(pipelines);
+        Map<String, List<AIGenPipeline>> outIdToPipelines = new LinkedHashMap<>();
         for (AIGenPipeline pipeline : pipelines) {
             String outId = idForInOut(pipeline.taskOutput);
             List<AIGenPipeline> list = outIdToPipelines.get(outId);
@@ -108,14 +111,48 @@ public class AIDepDiagram {
             list.add(pipeline);
         }
         for (String id : sortedIds) {
-            List<AIGenPipeline> list = outIdToPipelines.get(id);
+            List<AIGenPipeline> list = outIdToPipelines.remove(id);
             if (null != list) {
                 sorted.addAll(list);
-                remainingPipelines.removeAll(list);
             }
         }
-        sorted.addAll(remainingPipelines);
+        outIdToPipelines.values().forEach(sorted::addAll); // pipelines without dependencies
         return sorted;
     }
 
+    /**
+     * Determines for each pipeline which pipelines have to be finished before it can be executed: those writing
+     * its inputs or prompts. Pipelines writing into the same file are executed in the order of the list, since
+     * they would otherwise overwrite each others changes.
+     *
+     * @param orderedPipelines the pipelines in the order they'd be executed sequentially, as from {@link #sortedPipelines()}
+     * @return for each pipeline the set of pipelines it depends on, not null
+     */
+    @Nonnull
+    public Map<AIGenPipeline, Set<AIGenPipeline>> dependencies(List<AIGenPipeline> orderedPipelines) {
+        Map<String, List<AIGenPipeline>> outIdToPipelines = new HashMap<>();
+        Map<AIGenPipeline, Set<AIGenPipeline>> dependencies = new LinkedHashMap<>();
+        for (AIGenPipeline pipeline : orderedPipelines) {
+            List<AIGenPipeline> sameOutput = outIdToPipelines.computeIfAbsent(idForInOut(pipeline.taskOutput), k -> new ArrayList<>());
+            Set<AIGenPipeline> deps = new LinkedHashSet<>();
+            if (!sameOutput.isEmpty()) {
+                deps.add(sameOutput.get(sameOutput.size() - 1));
+            }
+            sameOutput.add(pipeline);
+            dependencies.put(pipeline, deps);
+        }
+        for (AIGenPipeline pipeline : orderedPipelines) {
+            List<AIInOut> inputs = new ArrayList<>(pipeline.inputFiles);
+            inputs.addAll(pipeline.promptFiles);
+            for (AIInOut input : inputs) {
+                for (AIGenPipeline producer : outIdToPipelines.getOrDefault(idForInOut(input), Collections.emptyList())) {
+                    if (!idForInOut(producer.taskOutput).equals(idForInOut(pipeline.taskOutput))) {
+                        dependencies.get(pipeline).add(producer);
+                    }
+                }
+            }
+        }
+        return dependencies;
+    }
+
 }
@@ -47,6 +47,16 @@ public class AIGenArgumentList {
         this.args = args;
     }
 
+    /**
+     * Arguments read from somewhere else.
+     * @param cfgFile the configuration file they are from, if any
+     * @param args the arguments
+     */
+    public AIGenArgumentList(@Nullable File cfgFile, @Nonnull String[] args) {
+        this.cfgFile = cfgFile;
+        this.args = args;
+    }
+
     /**
      * Reads the arguments from a file.
      * @param cfgFile the file to read from
@@ -64,6 +74,14 @@ public class AIGenArgumentList {
         }
     }
 
+    /**
+     * A copy that can be modified without changing this.
+     */
+    @Nonnull
+    public AIGenArgumentList copy() {
+        return new AIGenArgumentList(cfgFile, args.clone());
+    }
+
     public boolean hasArgument(String shortform, String longform) {
         return Arrays.asList(args).contains(shortform) || Arrays.asList(args).contains(longform);
     }
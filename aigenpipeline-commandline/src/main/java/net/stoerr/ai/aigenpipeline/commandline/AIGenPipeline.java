@@ -10,28 +10,46 @@ import java.io.PrintStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 import net.stoerr.ai.aigenpipeline.framework.chat.AIChatBuilder;
+import net.stoerr.ai.aigenpipeline.framework.chat.ChatResponseCache;
 import net.stoerr.ai.aigenpipeline.framework.chat.CopyPseudoAIChatBuilderImpl;
 import net.stoerr.ai.aigenpipeline.framework.chat.OpenAIChatBuilderImpl;
+import net.stoerr.ai.aigenpipeline.framework.chat.RetryPolicy;
 import net.stoerr.ai.aigenpipeline.framework.task.AIGenerationTask;
 import net.stoerr.ai.aigenpipeline.framework.task.AIInOut;
+import net.stoerr.ai.aigenpipeline.framework.task.FileContentCache;
 import net.stoerr.ai.aigenpipeline.framework.task.FileLookupHelper;
+import net.stoerr.ai.aigenpipeline.framework.task.InfilePromptFile;
+import net.stoerr.ai.aigenpipeline.framework.task.PersistentFileIndex;
 import net.stoerr.ai.aigenpipeline.framework.task.RegenerationCheckStrategy;
 import net.stoerr.ai.aigenpipeline.framework.task.SegmentedFile;
+import net.stoerr.ai.aigenpipeline.framework.task.TaskStatistics;
 import net.stoerr.ai.aigenpipeline.framework.task.WritingStrategy;
 
 /**
@@ -53,6 +71,18 @@ public class AIGenPipeline {
      * Name of configuration files we scan upwards from the output directory.
      */
     public static final String CONFIGFILE = ".aigenpipeline";
+    /**
+     * Name of the index of input file versions in the {@link #cacheDir}.
+     */
+    public static final String VERSIONINDEX_FILE = "versionindex.txt";
+    /**
+     * Name of the index of the infile prompt ids contained in the files scanned by -os, in the {@link #cacheDir}.
+     */
+    public static final String SCANINDEX_FILE = "scanindex.txt";
+    /**
+     * Separates the prompt ids in the values of the {@link #SCANINDEX_FILE} - an id cannot contain it.
+     */
+    protected static final String SCANINDEX_SEPARATOR = ")";
     public static final PrintStream OUT = System.out;
     public static final PrintStream ERR = System.err;
 
@@ -75,7 +105,11 @@ public class AIGenPipeline {
     protected String model = "gpt-4o-mini"; // "gpt-4o";
     protected AIGenerationTask task = new AIGenerationTask();
     protected File rootDir = new File(".");
-    protected PrintStream logStream = System.err;
+    protected Map<String, String> env = System.getenv();
+    protected InputStream in = System.in;
+    protected PrintStream out = OUT;
+    protected PrintStream err = ERR;
+    protected PrintStream logStream = err;
     protected Integer tokens;
     protected RegenerationCheckStrategy regenerationCheckStrategy = RegenerationCheckStrategy.VERSIONMARKER;
     protected WritingStrategy writingStrategy = WritingStrategy.WITHVERSION;
@@ -83,20 +117,106 @@ public class AIGenPipeline {
     protected boolean printconfig;
     protected String infilePromptMarker;
     protected String outputScan;
+    /**
+     * Whether -os skips files excluded by .gitignore and .aigenpipelineignore files.
+     */
+    protected boolean outputScanRespectIgnoreFiles = true;
     protected boolean printdependencydiagram;
     protected boolean update;
     protected List<AIInOut> hintFiles = new ArrayList<>();
+    /**
+     * Maximum number of tasks executed in parallel with -os ; null means sequential execution.
+     */
+    protected Integer jobs;
+    protected boolean stream;
+    protected File responseCacheDir;
+    protected long responseCacheSize = ChatResponseCache.DEFAULT_MAX_SIZE;
+    protected Integer retries;
+    protected Integer retryMaxWait;
+    protected Integer continuations;
+    protected Integer requestsPerMinute;
+    protected File cacheDir;
+    protected Integer tokensPerMinute;
+    protected File batchFile;
+    /**
+     * Format for the report of the task timings and token usage at the end of the run, or null for none.
+     */
+    protected String report;
+    /**
+     * Collects the task statistics for the {@link #report}; shared with sub pipelines.
+     */
+    protected TaskReport taskReport;
+    /**
+     * How long the task waited for a free worker after becoming ready, set by {@link ParallelPipelineExecutor}.
+     */
+    protected volatile long queueWaitNanos;
+    /**
+     * For tasks from a batch file, {@link #prepareTaskInputs()} is done just before the execution.
+     */
+    protected boolean inputsPending;
+    /**
+     * Configuration files that were already read, shared with sub pipelines since these mostly need the same files.
+     */
+    protected Map<File, Optional<AIGenArgumentList>> configFileCache = new ConcurrentHashMap<>();
+
+    /**
+     * The parsed files with infile prompts, shared with sub pipelines so that each file is parsed only once for all
+     * of its prompts, and writing the output of one prompt keeps the outputs of the others.
+     */
+    protected Map<File, InfilePromptFile> infilePromptFiles = new ConcurrentHashMap<>();
+
+    /**
+     * If the output is an infile prompt: the file, where the task is registered as pending writer until it's executed.
+     */
+    protected InfilePromptFile outputInfilePromptFile;
+
+    public AIGenPipeline() {
+        // default: run in the current directory with the streams and environment of the process
+    }
+
+    /**
+     * A pipeline for an invocation that doesn't have the working directory, environment and standard streams of this
+     * process - e.g. from a client of the {@link AIGenPipelineServer}.
+     */
+    protected AIGenPipeline(@Nonnull File workDir, @Nonnull Map<String, String> env,
+                            @Nonnull InputStream in, @Nonnull PrintStream out, @Nonnull PrintStream err) {
+        this.rootDir = workDir;
+        this.env = env;
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.logStream = err;
+    }
 
     public static void main(String[] args) throws IOException {
-        new AIGenPipeline().run(args);
+        if (args.length > 0 && AIGenPipelineServer.DAEMON_OPTION.equals(args[0])) {
+            AIGenPipelineServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length == 1 && AIGenPipelineServer.DAEMON_STOP_OPTION.equals(args[0])) {
+            ERR.println("No daemon running.");
+            return;
+        }
+        FileContentCache.setEnabled(true);
+        int status = new AIGenPipeline().run(args);
+        OUT.flush();
+        ERR.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
     }
 
-    protected void run(String[] args) throws IOException {
+    /**
+     * Executes the command line.
+     *
+     * @return the exit status of the command
+     */
+    protected int run(String[] args) throws IOException {
         try {
             readArguments(args, rootDir);
 
             if (version) {
-                OUT.println(getVersion());
+                out.println(getVersion());
             }
             if (help || args.length == 0) {
                 printHelp(false);
@@ -105,24 +225,34 @@ public class AIGenPipeline {
                 answerHelpAIQuestion();
             }
             if (version || help || helpAIquestion != null || printconfig) {
-                OUT.flush();
-                ERR.flush();
-                System.exit(0);
+                return 0;
             }
+            taskReport = report != null ? new TaskReport(rootDir) : null;
 
-            if (outputScan == null) {
-                run();
-            } else {
-                runWithOutputScan(args);
+            try {
+                if (batchFile != null) {
+                    runBatch(args);
+                } else if (outputScan == null) {
+                    run();
+                } else {
+                    runWithOutputScan(args);
+                }
+            } finally {
+                flushInfilePromptFiles();
+                PersistentFileIndex.saveAll();
+                if (taskReport != null) {
+                    taskReport.print(report, err);
+                }
             }
+            return 0;
+        } catch (ExitException e) {
+            return e.status;
         } catch (IllegalArgumentException e) {
             logStream.println("Usage error for " + output + " : " + e.getMessage());
             if (verbose) {
-                e.printStackTrace(ERR);
+                e.printStackTrace(err);
             }
-            OUT.flush();
-            ERR.flush();
-            System.exit(1);
+            return 1;
         }
     }
 
@@ -137,6 +267,9 @@ public class AIGenPipeline {
         if (null != apiKey) {
             chatBuilder.key(apiKey);
         }
+        if (chatBuilder instanceof OpenAIChatBuilderImpl) { // in a daemon that's the environment of the client
+            ((OpenAIChatBuilderImpl) chatBuilder).env(env);
+        }
         if (null != organizationId) {
             chatBuilder.organizationId(organizationId);
         }
@@ -146,6 +279,25 @@ public class AIGenPipeline {
         if (null != tokens) {
             chatBuilder.maxTokens(tokens);
         }
+        if (null != responseCacheDir && chatBuilder instanceof OpenAIChatBuilderImpl) {
+            ((OpenAIChatBuilderImpl) chatBuilder).responseCache(ChatResponseCache.get(responseCacheDir.toPath(), responseCacheSize));
+        }
+        if ((null != retries || null != retryMaxWait) && chatBuilder instanceof OpenAIChatBuilderImpl) {
+            RetryPolicy retryPolicy = new RetryPolicy();
+            if (null != retries) {
+                retryPolicy.maxRetries(retries);
+            }
+            if (null != retryMaxWait) {
+                retryPolicy.maxTotalWait(Duration.ofSeconds(retryMaxWait));
+            }
+            ((OpenAIChatBuilderImpl) chatBuilder).retryPolicy(retryPolicy);
+        }
+        if (null != continuations && chatBuilder instanceof OpenAIChatBuilderImpl) {
+            ((OpenAIChatBuilderImpl) chatBuilder).continuations(continuations);
+        }
+        if ((null != requestsPerMinute || null != tokensPerMinute) && chatBuilder instanceof OpenAIChatBuilderImpl) {
+            ((OpenAIChatBuilderImpl) chatBuilder).rateLimits(requestsPerMinute, tokensPerMinute);
+        }
         return chatBuilder;
     }
 
@@ -155,11 +307,20 @@ public class AIGenPipeline {
     }
 
     protected void prepareTask() throws IOException {
-        this.logStream = output == null || output.isBlank() ? OUT : ERR;
-        File outputFile = Path.of(".").resolve(requireNonNull(output, "No output file given.")).toFile();
+        prepareTaskOutput();
+        prepareTaskInputs();
+    }
+
+    /**
+     * Determines the {@link #taskOutput}, which is enough to sort the tasks by their dependencies.
+     */
+    protected void prepareTaskOutput() throws IOException {
+        this.logStream = output == null || output.isBlank() ? out : err;
+        File outputFile = rootDir.toPath().resolve(requireNonNull(output, "No output file given.")).toFile();
         if (infilePromptMarker != null) {
-            String[] separators = SegmentedFile.infilePrompting(infilePromptMarker);
-            SegmentedFile segmentedFile = new SegmentedFile(outputFile, separators);
+            outputInfilePromptFile = infilePromptFile(outputFile);
+            SegmentedFile segmentedFile = outputInfilePromptFile.getPrompt(infilePromptMarker);
+            outputInfilePromptFile.addPendingWriter();
             task.addPrompt(AIInOut.of(segmentedFile, 1));
             taskOutput = AIInOut.of(segmentedFile, 3);
         } else if (writePart != null) {
@@ -169,6 +330,12 @@ public class AIGenPipeline {
             taskOutput = AIInOut.of(outputFile);
         }
         task.setOutput(taskOutput);
+    }
+
+    /**
+     * Configures the rest of the task. The inputs have to exist at this point.
+     */
+    protected void prepareTaskInputs() {
         for (AIInOut inputFile : inputFiles) {
             if (inputFile.sameFile(taskOutput)) {
                 task.addOptionalInput(inputFile);
@@ -181,12 +348,16 @@ public class AIGenPipeline {
         promptFiles.forEach(f -> task.addPrompt(f, keyValues));
         task.setRegenerationCheckStrategy(regenerationCheckStrategy);
         task.setWritingStrategy(writingStrategy);
+        task.setStreaming(stream);
+        if (cacheDir != null) {
+            task.setVersionIndex(PersistentFileIndex.get(cacheDir.toPath().resolve(VERSIONINDEX_FILE)));
+        }
         if (check) {
             boolean hasToBeRun = task.hasToBeRun();
             if (verbose) {
                 logStream.println("Needs running: " + hasToBeRun);
             }
-            System.exit(hasToBeRun ? 0 : 1); // command line like: 0 is "OK" = file is up to date.
+            throw new ExitException(hasToBeRun ? 0 : 1); // command line like: 0 is "OK" = file is up to date.
         }
         if (verbose) {
             logStream.println(task.toJson(this::makeChatBuilder, rootDir));
@@ -198,24 +369,82 @@ public class AIGenPipeline {
         }
         if (explain != null) {
             String explanation = task.explain(this::makeChatBuilder, rootDir, explain);
-            OUT.println(explanation);
+            out.println(explanation);
         }
     }
 
     protected void executeTask() {
         try {
+            if (inputsPending) { // inputs might have been generated by the tasks before
+                inputsPending = false;
+                prepareTaskInputs();
+            }
             if (printdependencydiagram) {
                 new AIDepDiagram(Arrays.asList(this), rootDir).printDepDiagram(logStream);
                 return;
             }
             if (explain == null) {
                 if (verbose) logStream.println("Executing task for " + taskOutput.getFile());
-                task.execute(this::makeChatBuilder, rootDir);
+                flushReadInfilePromptFiles();
+                try {
+                    task.execute(this::makeChatBuilder, rootDir);
+                } finally {
+                    recordStatistics();
+                }
             }
+        } catch (ExitException e) { // the result of --check, not an error
+            throw e;
         } catch (RuntimeException e) {
             String outputLocation = taskOutput != null ? taskOutput.getFile().getPath() : output;
             logStream.println("Error regarding " + outputLocation);
             throw e;
+        } finally {
+            if (outputInfilePromptFile != null) {
+                InfilePromptFile infilePromptFile = outputInfilePromptFile;
+                outputInfilePromptFile = null;
+                try {
+                    infilePromptFile.writerDone();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not write " + infilePromptFile.getFile(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the deferred changes of the files with infile prompts the task reads, since it reads them from disk.
+     * Dependency order makes sure all writers of another file are done, but not of its own output file.
+     */
+    protected void flushReadInfilePromptFiles() {
+        List<AIInOut> readFiles = new ArrayList<>(inputFiles);
+        readFiles.addAll(promptFiles);
+        readFiles.addAll(hintFiles);
+        for (AIInOut readFile : readFiles) {
+            if (readFile.getFile() == null) {
+                continue;
+            }
+            InfilePromptFile infilePromptFile =
+                    infilePromptFiles.get(readFile.getFile().toPath().toAbsolutePath().normalize().toFile());
+            if (infilePromptFile != null) {
+                try {
+                    infilePromptFile.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not write " + infilePromptFile.getFile(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the queue wait to the statistics of the task and registers them for the report.
+     */
+    protected void recordStatistics() {
+        TaskStatistics statistics = task.getStatistics();
+        if (statistics != null) {
+            statistics.add(TaskStatistics.Phase.QUEUE_WAIT, queueWaitNanos);
+            if (taskReport != null) {
+                taskReport.add(taskOutput.getFile(), infilePromptMarker, statistics);
+            }
         }
     }
 
@@ -229,27 +458,34 @@ public class AIGenPipeline {
                     "(Likely a misusage - did you forget to quote the pattern on the command line?) " +
                     "Actual arguments were: " + Arrays.toString(args));
         }
-        FileLookupHelper helper = FileLookupHelper.fromPath(".");
-        List<File> files = helper.filesContaining(".", outputScan, SegmentedFile.REGEX_AIGENPROMPTSTART, true);
+        FileLookupHelper helper = FileLookupHelper.fromPath(rootDir.getPath())
+                .respectIgnoreFiles(outputScanRespectIgnoreFiles);
+        PersistentFileIndex scanIndex = cacheDir != null ?
+                PersistentFileIndex.get(cacheDir.toPath().resolve(SCANINDEX_FILE)) : null;
+        Map<File, List<String>> promptIds = new ConcurrentHashMap<>();
+        List<File> files = helper.files(".", outputScan, true, file -> {
+            List<String> ids = infilePromptIds(file, scanIndex);
+            if (!ids.isEmpty()) {
+                promptIds.put(file, ids);
+            }
+            return !ids.isEmpty();
+        });
         if (files.isEmpty()) {
             throw new IllegalArgumentException("No files with AIGenPromptStart found for pattern " + outputScan);
         } else if (verbose) {
-            OUT.println("Found " + files.size() + " files: " + files);
+            out.println("Found " + files.size() + " files: " + files);
         }
         List<AIGenPipeline> subPipelines = new ArrayList<>();
         for (File file : files) {
-            String content = AIInOut.of(file).read();
-            Matcher promptStartMatch = SegmentedFile.REGEX_AIGENPROMPTSTART.matcher(content);
-            while (promptStartMatch.find()) {
-                String marker = promptStartMatch.group("id");
+            for (String marker : promptIds.get(file)) {
                 try {
-                    SegmentedFile segmentedFile = new SegmentedFile(file, SegmentedFile.infilePrompting(marker));
+                    SegmentedFile segmentedFile = infilePromptFile(file).getPrompt(marker);
                     String infileArguments = segmentedFile.getSegment(2).trim().replaceAll("\\s+", " ");
                     if (verbose) {
                         logStream.println("Processing file " + file + " with marker " + marker + " and arguments " + infileArguments);
                     }
                     parseArguments(infileArguments.split("\\s+"), file.getParentFile());
-                    AIGenPipeline subPipeline = new AIGenPipeline();
+                    AIGenPipeline subPipeline = makeSubPipeline(rootDir);
                     List<String> subArgs = new ArrayList<>(Arrays.asList(args));
                     subArgs.addAll(List.of("-ifp", marker, file.getAbsolutePath()));
                     subPipeline.readArguments(subArgs.toArray(new String[0]), rootDir);
@@ -257,50 +493,187 @@ public class AIGenPipeline {
                     subPipeline.prepareTask();
                     subPipelines.add(subPipeline);
                 } catch (IOException e) {
-                    ERR.println("Error processing file " + file + ": " + e);
+                    err.println("Error processing file " + file + ": " + e);
+                }
+            }
+        }
+        if (verbose) {
+            out.println("Processing " + subPipelines.size() + " tasks.");
+        }
+        if (printdependencydiagram) {
+            new AIDepDiagram(subPipelines, rootDir).printDepDiagram(logStream);
+        } else {
+            executePipelines(subPipelines);
+        }
+    }
+
+    /**
+     * The ids of the infile prompts in the file. If there is a scan index, they are taken from there if the file
+     * didn't change since it was last scanned, so that usually only new and changed files have to be read.
+     */
+    @Nonnull
+    protected List<String> infilePromptIds(@Nonnull File file, @Nullable PersistentFileIndex scanIndex) {
+        Function<File, String> scan = f -> {
+            try {
+                return String.join(SCANINDEX_SEPARATOR, SegmentedFile.infilePromptIds(f));
+            } catch (IOException e) {
+                err.println("Error reading file " + f + ": " + e);
+                return null;
+            }
+        };
+        String ids = scanIndex != null ? scanIndex.get(file, scan) : scan.apply(file);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(ids.split(Pattern.quote(SCANINDEX_SEPARATOR)));
+    }
+
+    /**
+     * Reads the argument lists from the {@link #batchFile} and executes them like separate invocations, with the
+     * other arguments given here as common arguments. Each line is either a whitespace separated argument list, a JSON
+     * array of arguments, or a JSON object with the arguments as "args" and optionally a "dir" where it's executed,
+     * relative to the current directory. Empty lines and lines starting with # are ignored.
+     *
+     * @param args the command line arguments
+     */
+    protected void runBatch(String[] args) throws IOException {
+        if (outputScan != null || output != null || !inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("Cannot use --batch with -os, -o or input files - those belong into the batch file. " +
+                    "Actual arguments were: " + Arrays.toString(args));
+        }
+        List<String> commonArgs = new ArrayList<>(Arrays.asList(args));
+        int batchIndex = commonArgs.indexOf("--batch");
+        if (batchIndex >= 0) { // not if it's given in a configuration file or the environment
+            commonArgs.subList(batchIndex, Math.min(batchIndex + 2, commonArgs.size())).clear();
+        }
+
+        List<String> lines = Files.readAllLines(batchFile.toPath(), StandardCharsets.UTF_8);
+        List<AIGenPipeline> subPipelines = new ArrayList<>();
+        for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+            String line = lines.get(lineNumber - 1).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                File dir = rootDir;
+                List<String> lineArgs = new ArrayList<>();
+                if (line.startsWith("[") || line.startsWith("{")) {
+                    JsonElement json = JsonParser.parseString(line);
+                    JsonArray jsonArgs;
+                    if (json.isJsonObject()) {
+                        JsonObject record = json.getAsJsonObject();
+                        if (!record.has("args")) {
+                            throw new IllegalArgumentException("No \"args\" given");
+                        }
+                        jsonArgs = record.getAsJsonArray("args");
+                        if (record.has("dir")) {
+                            dir = rootDir.toPath().resolve(record.get("dir").getAsString()).toFile();
+                        }
+                    } else {
+                        jsonArgs = json.getAsJsonArray();
+                    }
+                    jsonArgs.forEach(arg -> lineArgs.add(arg.getAsString()));
+                } else {
+                    lineArgs.addAll(Arrays.asList(line.split("\\s+")));
                 }
+                if (lineArgs.contains("--batch") || lineArgs.contains("-os") || lineArgs.contains("--outputscan")) {
+                    throw new IllegalArgumentException("--batch and -os are not possible within a batch file");
+                }
+                List<String> subArgs = new ArrayList<>(commonArgs);
+                subArgs.addAll(lineArgs);
+                AIGenPipeline subPipeline = makeSubPipeline(dir);
+                subPipeline.readArguments(subArgs.toArray(new String[0]), dir);
+                subPipeline.prepareTaskOutput();
+                subPipeline.inputsPending = true;
+                subPipelines.add(subPipeline);
+            } catch (IllegalArgumentException | IllegalStateException | JsonParseException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + " of " + batchFile + ": " + e.getMessage(), e);
             }
         }
         if (verbose) {
-            OUT.println("Processing " + subPipelines.size() + " tasks.");
+            out.println("Processing " + subPipelines.size() + " tasks from " + batchFile);
         }
         if (printdependencydiagram) {
             new AIDepDiagram(subPipelines, rootDir).printDepDiagram(logStream);
         } else {
-            List<AIGenPipeline> sorted = new AIDepDiagram(subPipelines, rootDir).sortedPipelines();
+            executePipelines(subPipelines);
+        }
+    }
+
+    /**
+     * A pipeline for a part of the work of this one, sharing our environment and the configuration files read.
+     */
+    protected AIGenPipeline makeSubPipeline(@Nonnull File workDir) {
+        AIGenPipeline subPipeline = new AIGenPipeline(workDir, env, in, out, err);
+        subPipeline.configFileCache = configFileCache;
+        subPipeline.infilePromptFiles = infilePromptFiles;
+        subPipeline.taskReport = taskReport;
+        return subPipeline;
+    }
+
+    /**
+     * Executes the pipelines in an order that respects their dependencies - in parallel if {@link #jobs} is given.
+     */
+    protected void executePipelines(List<AIGenPipeline> pipelines) {
+        AIDepDiagram depDiagram = new AIDepDiagram(pipelines, rootDir);
+        List<AIGenPipeline> sorted = depDiagram.sortedPipelines();
+        if (sorted.stream().anyMatch(pipeline -> pipeline.check)) {
+            checkPipelines(sorted);
+        } else if (jobs == null) {
             sorted.forEach(AIGenPipeline::executeTask);
+        } else {
+            new ParallelPipelineExecutor(sorted, depDiagram.dependencies(sorted), jobs, logStream).execute();
         }
     }
 
+    /**
+     * For --check with several tasks: checks all of them, sequentially since that is quick, and exits with the
+     * status of a single task that has to be run if any of them has to be run.
+     */
+    protected void checkPipelines(List<AIGenPipeline> pipelines) {
+        int status = 1;
+        for (AIGenPipeline pipeline : pipelines) {
+            try {
+                pipeline.executeTask();
+            } catch (ExitException e) {
+                status = Math.min(status, e.status);
+            }
+        }
+        throw new ExitException(status);
+    }
+
     protected void readArguments(String[] args, @Nonnull File startDir) throws IOException {
         List<AIGenArgumentList> argLists = collectArgLists(args, startDir);
         for (AIGenArgumentList argumentsFromFile : argLists) {
-            parseArguments(argumentsFromFile.getArgs(), startDir);
+            File cfgFile = argumentsFromFile.getCfgFile();
+            parseArguments(argumentsFromFile.getArgs(), startDir, cfgFile != null ? cfgFile.getParentFile() : startDir);
         }
 
         if (printconfig) {
-            OUT.println("Collected argument lists from environment, configuration files and arguments:");
+            out.println("Collected argument lists from environment, configuration files and arguments:");
             for (AIGenArgumentList argumentsFromFile : argLists) {
                 File configFile = argumentsFromFile.getCfgFile();
                 if (null != configFile) {
-                    OUT.println(configFile.getAbsolutePath());
+                    out.println(configFile.getAbsolutePath());
                 }
-                OUT.println(Arrays.toString(argumentsFromFile.getArgs()));
+                out.println(Arrays.toString(argumentsFromFile.getArgs()));
             }
         }
 
         if (infilePromptMarker != null) {
             File outputFile = startDir.toPath().resolve(
                     requireNonNull(output, "No output file given.")).toFile();
-            String[] separators = SegmentedFile.infilePrompting(infilePromptMarker);
-            SegmentedFile segmentedFile = new SegmentedFile(outputFile, separators);
+            SegmentedFile segmentedFile = infilePromptFile(outputFile).getPrompt(infilePromptMarker);
             String infileArguments = segmentedFile.getSegment(2).trim().replaceAll("\\s+", " ");
             parseArguments(infileArguments.split("\\s+"), outputFile.getParentFile());
         }
     }
 
     protected List<AIGenArgumentList> collectArgLists(String[] args, File startDir) {
+        ConfigCollectionEvent event = new ConfigCollectionEvent();
+        event.begin();
         List<AIGenArgumentList> argLists = new ArrayList<>();
+        int configFiles = 0;
 
         AIGenArgumentList argsConfig = new AIGenArgumentList(args);
         argLists.add(argsConfig);
@@ -309,10 +682,10 @@ public class AIGenPipeline {
         if (!isStopCfgfileScan(argsConfig)) {
             File currentDir = startDir;
             while (currentDir != null) {
-                File configFile = new File(currentDir, CONFIGFILE);
-                if (configFile.exists()) {
-                    AIGenArgumentList argumentsFromFile = new AIGenArgumentList(configFile);
+                AIGenArgumentList argumentsFromFile = readConfigFile(new File(currentDir, CONFIGFILE));
+                if (argumentsFromFile != null) {
                     argLists.add(argumentsFromFile);
+                    configFiles++;
                     if (!isStopCfgfileScan(argumentsFromFile)) break;
                 }
                 currentDir = currentDir.getParentFile();
@@ -322,15 +695,67 @@ public class AIGenPipeline {
         // read the arguments from the environment variable only if no -cne option was given
         boolean ignoreEnvironmentArgs = argLists.stream().anyMatch(this::isIgnoreEnvironmentArgs);
         if (!ignoreEnvironmentArgs) {
-            AIGenArgumentList envConfig = new AIGenArgumentList(System.getenv(AIGENPIPELINE_CONFIG) == null ? new String[0] :
-                    System.getenv(AIGENPIPELINE_CONFIG).split("\\s+"));
+            AIGenArgumentList envConfig = new AIGenArgumentList(env.get(AIGENPIPELINE_CONFIG) == null ? new String[0] :
+                    env.get(AIGENPIPELINE_CONFIG).split("\\s+"));
             argLists.add(envConfig);
         }
 
         Collections.reverse(argLists);
+        event.end();
+        if (event.shouldCommit()) {
+            event.directory = String.valueOf(startDir);
+            event.configFiles = configFiles;
+            event.commit();
+        }
         return argLists;
     }
 
+    /**
+     * Parses a file with infile prompts, or takes it from the {@link #infilePromptFiles}.
+     */
+    @Nonnull
+    protected InfilePromptFile infilePromptFile(@Nonnull File file) throws IOException {
+        File key = file.toPath().toAbsolutePath().normalize().toFile();
+        InfilePromptFile infilePromptFile = infilePromptFiles.get(key);
+        if (infilePromptFile == null) {
+            infilePromptFile = new InfilePromptFile(key);
+            InfilePromptFile previous = infilePromptFiles.putIfAbsent(key, infilePromptFile);
+            infilePromptFile = previous != null ? previous : infilePromptFile;
+        }
+        return infilePromptFile;
+    }
+
+    /**
+     * Writes the changes in all {@link #infilePromptFiles} that weren't written yet, e.g. since a task failed.
+     */
+    protected void flushInfilePromptFiles() throws IOException {
+        IOException failure = null;
+        for (InfilePromptFile infilePromptFile : infilePromptFiles.values()) {
+            try {
+                infilePromptFile.flush();
+            } catch (IOException e) {
+                err.println("Could not write " + infilePromptFile.getFile() + ": " + e);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads a configuration file, or takes it from the {@link #configFileCache}.
+     *
+     * @return the arguments, or null if the file doesn't exist
+     */
+    @Nullable
+    protected AIGenArgumentList readConfigFile(@Nonnull File configFile) {
+        return configFileCache.computeIfAbsent(configFile.getAbsoluteFile(),
+                        file -> file.exists() ? Optional.of(new AIGenArgumentList(file)) : Optional.empty())
+                .map(AIGenArgumentList::copy) // since parseArguments replaces environment variables in the array
+                .orElse(null);
+    }
+
     protected boolean isStopCfgfileScan(AIGenArgumentList args) {
         return args.hasArgument("-cn", "--confignoscan");
     }
@@ -340,14 +765,22 @@ public class AIGenPipeline {
     }
 
     protected void parseArguments(String[] args, File dir) throws IOException {
+        parseArguments(args, dir, dir);
+    }
+
+    /**
+     * @param dir       the directory relative paths of inputs and outputs are resolved against
+     * @param configDir the directory of the configuration file the arguments are from, if any, else the same as dir
+     */
+    protected void parseArguments(String[] args, File dir, File configDir) throws IOException {
         // replace environment variables
         for (int i = 0; i < args.length; i++) {
             if (args[i].contains("$")) {
                 Matcher matcher = ENVVARIABLE_PATTERN.matcher(args[i]);
                 StringBuffer sb = new StringBuffer();
                 while (matcher.find()) {
-                    String env = System.getenv(matcher.group().substring(1));
-                    matcher.appendReplacement(sb, env != null ? env : "");
+                    String value = env.get(matcher.group().substring(1));
+                    matcher.appendReplacement(sb, value != null ? Matcher.quoteReplacement(value) : "");
                 }
                 matcher.appendTail(sb);
                 args[i] = sb.toString();
@@ -377,9 +810,9 @@ public class AIGenPipeline {
                 case "--hint":
                     String hintFileName = args[++i];
                     if (hintFileName.equals("-")) {
-                        hintFiles.add(AIInOut.of(System.in));
+                        hintFiles.add(AIInOut.of(in));
                     } else {
-                        hintFiles.add(AIInOut.of(new File(hintFileName)));
+                        hintFiles.add(AIInOut.of(rootDir.toPath().resolve(hintFileName).toFile()));
                     }
                     break;
                 case "-upd":
@@ -390,6 +823,74 @@ public class AIGenPipeline {
                 case "--outputscan":
                     outputScan = args[++i];
                     break;
+                case "-osni":
+                case "--outputscan-noignore":
+                    outputScanRespectIgnoreFiles = false;
+                    break;
+                case "--batch":
+                    batchFile = dir.toPath().resolve(args[++i]).toFile();
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = Integer.parseInt(args[++i]);
+                    if (jobs < 1) {
+                        throw new IllegalArgumentException("Number of jobs has to be at least 1: " + jobs);
+                    }
+                    break;
+                case "--report":
+                    report = args[++i];
+                    if (!TaskReport.FORMAT_JSON.equals(report) && !TaskReport.FORMAT_TABLE.equals(report)) {
+                        throw new IllegalArgumentException("Report format has to be json or table: " + report);
+                    }
+                    break;
+                case "--rpm":
+                    requestsPerMinute = Integer.parseInt(args[++i]);
+                    if (requestsPerMinute < 1) {
+                        throw new IllegalArgumentException("Requests per minute have to be at least 1: " + requestsPerMinute);
+                    }
+                    break;
+                case "--tpm":
+                    tokensPerMinute = Integer.parseInt(args[++i]);
+                    if (tokensPerMinute < 1) {
+                        throw new IllegalArgumentException("Tokens per minute have to be at least 1: " + tokensPerMinute);
+                    }
+                    break;
+                case "-cd":
+                case "--cachedir":
+                    cacheDir = configDir.toPath().resolve(args[++i]).toFile();
+                    break;
+                case "-rc":
+                case "--responsecache":
+                    responseCacheDir = configDir.toPath().resolve(args[++i]).toFile();
+                    break;
+                case "-rcs":
+                case "--responsecachesize":
+                    responseCacheSize = Long.parseLong(args[++i]) * 1024 * 1024;
+                    if (responseCacheSize <= 0) {
+                        throw new IllegalArgumentException("Response cache size has to be positive: " + args[i]);
+                    }
+                    break;
+                case "-rt":
+                case "--retries":
+                    retries = Integer.parseInt(args[++i]);
+                    if (retries < 0) {
+                        throw new IllegalArgumentException("Number of retries must not be negative: " + retries);
+                    }
+                    break;
+                case "-ct":
+                case "--continuations":
+                    continuations = Integer.parseInt(args[++i]);
+                    if (continuations < 0) {
+                        throw new IllegalArgumentException("Number of continuations must not be negative: " + continuations);
+                    }
+                    break;
+                case "-rtw":
+                case "--retry-maxwait":
+                    retryMaxWait = Integer.parseInt(args[++i]);
+                    if (retryMaxWait < 0) {
+                        throw new IllegalArgumentException("Maximum wait for retries must not be negative: " + retryMaxWait);
+                    }
+                    break;
                 case "-dd":
                 case "--dependencydiagram":
                     printdependencydiagram = true;
@@ -410,7 +911,7 @@ public class AIGenPipeline {
                     break;
                 case "-s":
                 case "--sysmsg":
-                    task.setSystemMessage(new File(args[++i]));
+                    task.setSystemMessage(rootDir.toPath().resolve(args[++i]).toFile());
                     break;
                 case "-v":
                 case "--verbose":
@@ -450,6 +951,10 @@ public class AIGenPipeline {
                 case "--write-noversion":
                     writingStrategy = WritingStrategy.WITHOUTVERSION;
                     break;
+                case "-st":
+                case "--stream":
+                    stream = true;
+                    break;
                 case "-wp":
                 case "--write-part":
                     writePart = args[++i];
@@ -482,7 +987,10 @@ public class AIGenPipeline {
                 case "--configfile":
                     String filename = args[++i];
                     Path cfgFilePath = dir.toPath().resolve(filename);
-                    AIGenArgumentList cfgFileArgs = new AIGenArgumentList(cfgFilePath.toFile());
+                    AIGenArgumentList cfgFileArgs = readConfigFile(cfgFilePath.toFile());
+                    if (cfgFileArgs == null) {
+                        throw new IllegalArgumentException("Could not read " + cfgFilePath.toAbsolutePath());
+                    }
                     parseArguments(cfgFileArgs.getArgs(), cfgFilePath.getParent().toFile());
                     break;
                 case "-cp":
@@ -527,7 +1035,7 @@ public class AIGenPipeline {
             }
         }
         try {
-            OUT.println("Trying to get an answer from the AI...\n");
+            out.println("Trying to get an answer from the AI...\n");
             AIChatBuilder aiChatBuilder = makeChatBuilder();
             aiChatBuilder.systemMsg("You are a helper for the AI based code generation pipeline. " +
                     "You answer the users question about it from the collected help texts." +
@@ -537,16 +1045,16 @@ public class AIGenPipeline {
             aiChatBuilder.userMsg("From this help texts, please answer the following question:\n\n" + helpAIquestion);
             if (verbose) logStream.println("Asking AI:\n" + aiChatBuilder.toJson());
             String answer = aiChatBuilder.execute();
-            OUT.println(answer);
+            out.println(answer);
         } catch (Exception e) {
-            OUT.println("Failed to get an answer from the AI, possibly because of missing configuration: " + e);
-            OUT.println("You need a working access to an AI service to get an answer from the AI.");
-            OUT.println("Here are the web pages describing the tool:\n");
-            OUT.println(helptext);
-            OUT.println("\n");
+            out.println("Failed to get an answer from the AI, possibly because of missing configuration: " + e);
+            out.println("You need a working access to an AI service to get an answer from the AI.");
+            out.println("Here are the web pages describing the tool:\n");
+            out.println(helptext);
+            out.println("\n");
             printHelp(false);
-            OUT.println("You can repeat asking your question if you give keys etc. to have access to an AI service.\n");
-            OUT.println("Failed to get an answer from the AI, possibly because of missing configuration: " + e);
+            out.println("You can repeat asking your question if you give keys etc. to have access to an AI service.\n");
+            out.println("Failed to get an answer from the AI, possibly because of missing configuration: " + e);
         }
     }
 
@@ -563,7 +1071,7 @@ public class AIGenPipeline {
                      requireNonNull(usageFile), StandardCharsets.UTF_8)) {
             Writer writer = new StringWriter();
             reader.transferTo(writer);
-            (onerror ? ERR : OUT).println(writer);
+            (onerror ? err : out).println(writer);
         } catch (IOException e) {
             throw new IllegalStateException("Bug: cannot read usage file.");
         }
@@ -583,4 +1091,16 @@ public class AIGenPipeline {
         return sb.toString();
     }
 
+    /**
+     * Ends the execution of the command line with the given exit status.
+     */
+    protected static class ExitException extends RuntimeException {
+        protected final int status;
+
+        public ExitException(int status) {
+            super("Exit with status " + status);
+            this.status = status;
+        }
+    }
+
 }
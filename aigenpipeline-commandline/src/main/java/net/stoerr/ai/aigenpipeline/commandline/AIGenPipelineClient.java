@@ -0,0 +1,184 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A thin client for the {@link AIGenPipelineServer}: it forwards the arguments, the working directory, the
+ * environment and the standard streams to the server, which executes the command in its warm JVM. To start fast
+ * this deliberately uses only a few JDK classes. If no server is running, the command is executed in this JVM by
+ * {@link AIGenPipeline#main(String[])}.
+ * <p>
+ * The protocol: the client sends the secret from the server file, the working directory, the arguments and the
+ * environment; then the server sends frames consisting of a type byte, and for output a length and the data.
+ * Standard input is forwarded as length + data frames (-1 for the end) only after the server requested it with
+ * {@link #FRAME_STDIN}, since most commands don't read it.
+ */
+public class AIGenPipelineClient {
+
+    /**
+     * Environment variable that can give the location of the file the server writes its port and secret to.
+     */
+    public static final String AIGENPIPELINE_DAEMON = "AIGENPIPELINE_DAEMON";
+
+    /**
+     * Default location of the server file, relative to the user home.
+     */
+    public static final String DEFAULT_SERVER_FILE = ".aigenpipeline-daemon";
+
+    public static final String PROPERTY_PORT = "port";
+    public static final String PROPERTY_SECRET = "secret";
+
+    public static final byte FRAME_STDOUT = 'O';
+    public static final byte FRAME_STDERR = 'E';
+    public static final byte FRAME_STDIN = 'I';
+    public static final byte FRAME_EXIT = 'X';
+
+    public static void main(String[] args) throws IOException {
+        Properties serverProperties = readServerFile(serverFile(System.getenv()));
+        Socket socket = null;
+        if (serverProperties != null) {
+            try {
+                socket = new Socket(InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(serverProperties.getProperty(PROPERTY_PORT)));
+            } catch (IOException | RuntimeException e) {
+                // stale server file - we just execute the command ourselves.
+            }
+        }
+        if (socket == null) {
+            AIGenPipeline.main(args);
+            return;
+        }
+        int status;
+        try (Socket s = socket) {
+            status = execute(s, serverProperties.getProperty(PROPERTY_SECRET), args, System.in, System.out, System.err);
+        }
+        System.out.flush();
+        System.err.flush();
+        System.exit(status);
+    }
+
+    /**
+     * The file where the server writes its port and secret.
+     */
+    public static Path serverFile(Map<String, String> env) {
+        String location = env.get(AIGENPIPELINE_DAEMON);
+        if (location != null && !location.isBlank()) {
+            return Paths.get(location);
+        }
+        return Paths.get(System.getProperty("user.home"), DEFAULT_SERVER_FILE);
+    }
+
+    /**
+     * The properties from the server file, or null if there is none.
+     */
+    protected static Properties readServerFile(Path serverFile) {
+        if (!Files.isRegularFile(serverFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(serverFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        if (properties.getProperty(PROPERTY_PORT) == null || properties.getProperty(PROPERTY_SECRET) == null) {
+            return null;
+        }
+        return properties;
+    }
+
+    /**
+     * Sends the command to the server and copies its output to our standard streams.
+     *
+     * @return the exit status of the command
+     */
+    protected static int execute(Socket socket, String secret, String[] args,
+                                 InputStream in, OutputStream out, OutputStream err) throws IOException {
+        return execute(socket, secret, args, System.getenv(), in, out, err);
+    }
+
+    /**
+     * Sends the command with the given environment to the server and copies its output to our standard streams.
+     *
+     * @return the exit status of the command
+     */
+    protected static int execute(Socket socket, String secret, String[] args, Map<String, String> env,
+                                 InputStream in, OutputStream out, OutputStream err) throws IOException {
+        DataOutputStream toServer = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream fromServer = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        toServer.writeUTF(secret);
+        toServer.writeUTF(Paths.get("").toAbsolutePath().toString());
+        toServer.writeInt(args.length);
+        for (String arg : args) {
+            toServer.writeUTF(arg);
+        }
+        toServer.writeInt(env.size());
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            toServer.writeUTF(entry.getKey());
+            toServer.writeUTF(entry.getValue());
+        }
+        toServer.flush();
+
+        byte[] buf = new byte[8192];
+        while (true) {
+            int type = fromServer.read();
+            switch (type) {
+                case FRAME_STDOUT:
+                case FRAME_STDERR:
+                    int length = fromServer.readInt();
+                    if (buf.length < length) {
+                        buf = new byte[length];
+                    }
+                    fromServer.readFully(buf, 0, length);
+                    OutputStream target = type == FRAME_STDOUT ? out : err;
+                    target.write(buf, 0, length);
+                    target.flush();
+                    break;
+                case FRAME_STDIN:
+                    Thread stdinForwarder = new Thread(() -> forwardStdin(in, toServer), "aigenpipeline-stdin");
+                    stdinForwarder.setDaemon(true);
+                    stdinForwarder.start();
+                    break;
+                case FRAME_EXIT:
+                    return fromServer.readInt();
+                case -1:
+                    err.write("Connection to the aigenpipeline daemon was closed unexpectedly.\n".getBytes(StandardCharsets.UTF_8));
+                    err.flush();
+                    return 1;
+                default:
+                    throw new IOException("Broken protocol - unknown frame type " + type);
+            }
+        }
+    }
+
+    protected static void forwardStdin(InputStream in, DataOutputStream toServer) {
+        byte[] buf = new byte[8192];
+        try {
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                toServer.writeInt(read);
+                toServer.write(buf, 0, read);
+                toServer.flush();
+            }
+            toServer.writeInt(-1);
+            toServer.flush();
+        } catch (IOException e) {
+            // the server is gone - nothing to do.
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import static net.stoerr.ai.aigenpipeline.commandline.AIGenPipelineClient.FRAME_EXIT;
+import static net.stoerr.ai.aigenpipeline.commandline.AIGenPipelineClient.FRAME_STDERR;
+import static net.stoerr.ai.aigenpipeline.commandline.AIGenPipelineClient.FRAME_STDIN;
+import static net.stoerr.ai.aigenpipeline.commandline.AIGenPipelineClient.FRAME_STDOUT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import net.stoerr.ai.aigenpipeline.framework.task.FileContentCache;
+
+/**
+ * Keeps a JVM running that executes the commands forwarded by {@link AIGenPipelineClient}s, so that repeated
+ * invocations of the command line (e.g. from a build script) don't pay the JVM startup, class loading and JIT
+ * compilation each time, and share the caches and HTTP connections. The server listens on a loopback port; the port
+ * and a random secret the clients have to send are written into a server file only the user can read.
+ * <p>
+ * Started with {@code aigenpipeline --daemon [idle minutes]} ; it ends after the idle time without requests
+ * (default {@link #DEFAULT_IDLE_MINUTES}) or on {@code aigenpipeline --daemon-stop} .
+ */
+public class AIGenPipelineServer {
+
+    protected static final Logger LOG = Logger.getLogger(AIGenPipelineServer.class.getName());
+
+    public static final String DAEMON_OPTION = "--daemon";
+    public static final String DAEMON_STOP_OPTION = "--daemon-stop";
+
+    public static final int DEFAULT_IDLE_MINUTES = 60;
+
+    protected final Path serverFile;
+    protected final long idleMillis;
+    protected final String secret;
+    protected final AtomicInteger activeRequests = new AtomicInteger();
+    protected final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "aigenpipeline-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+    protected ServerSocket serverSocket;
+    protected volatile boolean stopped;
+    protected volatile long lastRequestTime = System.currentTimeMillis();
+
+    public AIGenPipelineServer(@Nonnull Path serverFile, int idleMinutes) {
+        this.serverFile = serverFile;
+        this.idleMillis = TimeUnit.MINUTES.toMillis(idleMinutes);
+        byte[] secretBytes = new byte[24];
+        new SecureRandom().nextBytes(secretBytes);
+        this.secret = Base64.getUrlEncoder().withoutPadding().encodeToString(secretBytes);
+    }
+
+    /**
+     * Arguments: optionally the number of minutes without requests after which the server stops.
+     */
+    public static void main(String[] args) throws IOException {
+        int idleMinutes = DEFAULT_IDLE_MINUTES;
+        if (args.length > 1) {
+            throw new IllegalArgumentException("Only the idle time in minutes is allowed as argument of " + DAEMON_OPTION);
+        } else if (args.length == 1) {
+            idleMinutes = Integer.parseInt(args[0]);
+            if (idleMinutes < 1) {
+                throw new IllegalArgumentException("Idle time has to be at least one minute: " + idleMinutes);
+            }
+        }
+        AIGenPipelineServer server = new AIGenPipelineServer(AIGenPipelineClient.serverFile(System.getenv()), idleMinutes);
+        server.start();
+        server.serve();
+    }
+
+    /**
+     * Opens the server socket and writes the server file.
+     */
+    public void start() throws IOException {
+        FileContentCache.setEnabled(true);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setSoTimeout((int) Math.min(idleMillis, TimeUnit.MINUTES.toMillis(1)));
+        writeServerFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::removeServerFile));
+        LOG.info(() -> "AIGenPipeline daemon listening on port " + serverSocket.getLocalPort() + " , server file " + serverFile);
+    }
+
+    /**
+     * Serves requests until it's stopped or idle for too long.
+     */
+    public void serve() throws IOException {
+        try {
+            while (!stopped) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    lastRequestTime = System.currentTimeMillis();
+                    activeRequests.incrementAndGet();
+                    executor.execute(() -> handle(socket));
+                } catch (SocketTimeoutException e) {
+                    if (activeRequests.get() == 0 && System.currentTimeMillis() - lastRequestTime > idleMillis) {
+                        LOG.info("Stopping AIGenPipeline daemon since it was idle for too long.");
+                        stopped = true;
+                    }
+                } catch (IOException e) {
+                    if (!stopped) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            stop();
+            try { // let running requests finish
+                executor.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        removeServerFile();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Error closing server socket", e);
+        }
+        executor.shutdown();
+    }
+
+    protected void writeServerFile() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(AIGenPipelineClient.PROPERTY_PORT, String.valueOf(serverSocket.getLocalPort()));
+        properties.setProperty(AIGenPipelineClient.PROPERTY_SECRET, secret);
+        Path dir = serverFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, serverFile.getFileName().toString(), ".tmp");
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system - the temp file is created with restricted permissions, anyway.
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "AIGenPipeline daemon");
+        }
+        Files.move(tmp, serverFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the server file, unless another server has replaced it meanwhile.
+     */
+    protected void removeServerFile() {
+        Properties properties = AIGenPipelineClient.readServerFile(serverFile);
+        if (properties != null && secret.equals(properties.getProperty(AIGenPipelineClient.PROPERTY_SECRET))) {
+            try {
+                Files.deleteIfExists(serverFile);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not remove " + serverFile, e);
+            }
+        }
+    }
+
+    protected void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream fromClient = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream toClient = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            String clientSecret = fromClient.readUTF();
+            if (!MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), clientSecret.getBytes(StandardCharsets.UTF_8))) {
+                LOG.warning("Rejected request with wrong secret");
+                return;
+            }
+            File workDir = new File(fromClient.readUTF());
+            String[] args = new String[fromClient.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = fromClient.readUTF();
+            }
+            int envSize = fromClient.readInt();
+            Map<String, String> env = new HashMap<>();
+            for (int i = 0; i < envSize; i++) {
+                env.put(fromClient.readUTF(), fromClient.readUTF());
+            }
+
+            if (args.length == 1 && DAEMON_STOP_OPTION.equals(args[0])) {
+                sendExit(toClient, 0);
+                stopped = true;
+                serverSocket.close();
+                return;
+            }
+
+            PrintStream out = new PrintStream(new FrameOutputStream(toClient, FRAME_STDOUT), true, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(new FrameOutputStream(toClient, FRAME_STDERR), true, StandardCharsets.UTF_8);
+            int status;
+            try {
+                status = new AIGenPipeline(workDir, env, new StdinInputStream(fromClient, toClient), out, err).run(args);
+            } catch (Exception e) {
+                e.printStackTrace(err);
+                status = 1;
+            }
+            out.flush();
+            err.flush();
+            sendExit(toClient, status);
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Error communicating with client", e);
+        } finally {
+            lastRequestTime = System.currentTimeMillis();
+            if (activeRequests.decrementAndGet() == 0) {
+                // don't keep the content of every file any client ever read, possibly from many repositories
+                FileContentCache.clear();
+            }
+        }
+    }
+
+    protected static void sendExit(DataOutputStream toClient, int status) throws IOException {
+        synchronized (toClient) {
+            toClient.writeByte(FRAME_EXIT);
+            toClient.writeInt(status);
+            toClient.flush();
+        }
+    }
+
+    /**
+     * Sends everything written as frames of the given type to the client.
+     */
+    protected static class FrameOutputStream extends OutputStream {
+        protected final DataOutputStream toClient;
+        protected final byte type;
+
+        protected FrameOutputStream(DataOutputStream toClient, byte type) {
+            this.toClient = toClient;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (toClient) {
+                toClient.writeByte(type);
+                toClient.writeInt(len);
+                toClient.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (toClient) {
+                toClient.flush();
+            }
+        }
+    }
+
+    /**
+     * The standard input of the client, which is requested from the client on the first read.
+     */
+    protected static class StdinInputStream extends InputStream {
+        protected final DataInputStream fromClient;
+        protected final DataOutputStream toClient;
+        protected boolean requested;
+        protected boolean eof;
+        protected int remainingInFrame;
+
+        protected StdinInputStream(DataInputStream fromClient, DataOutputStream toClient) {
+            this.fromClient = fromClient;
+            this.toClient = toClient;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!requested) {
+                requested = true;
+                synchronized (toClient) {
+                    toClient.writeByte(FRAME_STDIN);
+                    toClient.flush();
+                }
+            }
+            while (remainingInFrame == 0 && !eof) {
+                remainingInFrame = fromClient.readInt();
+                if (remainingInFrame < 0) {
+                    eof = true;
+                    remainingInFrame = 0;
+                }
+            }
+            if (eof && remainingInFrame == 0) {
+                return -1;
+            }
+            int read = fromClient.read(b, off, Math.min(len, remainingInFrame));
+            if (read < 0) {
+                throw new IOException("Client closed connection while sending standard input");
+            }
+            remainingInFrame -= read;
+            return read;
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for collecting the arguments of a task from the command line, the configuration files and the
+ * environment.
+ */
+@Name("net.stoerr.ai.aigenpipeline.ConfigCollection")
+@Label("Config Collection")
+@Category({"AIGenPipeline", "Task"})
+@Description("Collects the arguments from the command line, .aigenpipeline files and the environment")
+public class ConfigCollectionEvent extends Event {
+
+    @Label("Directory")
+    protected String directory;
+
+    @Label("Config Files")
+    protected int configFiles;
+
+}
@@ -0,0 +1,160 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Executes pipelines that depend on each other with a number of worker threads. A pipeline is started as soon as
+ * all pipelines it depends on are finished and a worker is free. If a pipeline fails, only the pipelines that
+ * (transitively) depend on it are skipped; everything else is still executed.
+ */
+public class ParallelPipelineExecutor {
+
+    protected final List<AIGenPipeline> pipelines;
+    protected final Map<AIGenPipeline, Set<AIGenPipeline>> dependencies;
+    protected final int jobs;
+    protected final PrintStream log;
+
+    protected final Map<AIGenPipeline, List<AIGenPipeline>> dependents = new HashMap<>();
+    protected final Map<AIGenPipeline, Integer> unfinishedDependencies = new HashMap<>();
+    protected final Map<AIGenPipeline, Exception> failures = new LinkedHashMap<>();
+    protected final Set<AIGenPipeline> skipped = new HashSet<>();
+
+    /**
+     * @param pipelines    the pipelines to execute, preferably in a topological order since that is the order ready
+     *                     pipelines are started in
+     * @param dependencies for each pipeline the pipelines that have to be finished before it can start
+     * @param jobs         the maximum number of pipelines executed in parallel
+     * @param log          where to report failures and skipped pipelines
+     */
+    public ParallelPipelineExecutor(@Nonnull List<AIGenPipeline> pipelines,
+                                    @Nonnull Map<AIGenPipeline, Set<AIGenPipeline>> dependencies,
+                                    int jobs, @Nonnull PrintStream log) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("Number of jobs has to be at least 1 but is " + jobs);
+        }
+        this.pipelines = pipelines;
+        this.dependencies = dependencies;
+        this.jobs = jobs;
+        this.log = log;
+        for (AIGenPipeline pipeline : pipelines) {
+            Set<AIGenPipeline> deps = dependencies.getOrDefault(pipeline, Collections.emptySet());
+            unfinishedDependencies.put(pipeline, deps.size());
+            for (AIGenPipeline dependency : deps) {
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(pipeline);
+            }
+        }
+    }
+
+    /**
+     * Executes all pipelines and waits until they are done.
+     *
+     * @throws IllegalStateException if any of the pipelines failed - that is thrown after everything that could be
+     *                               executed is done.
+     */
+    public void execute() throws IllegalStateException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, Math.max(1, pipelines.size())));
+        try {
+            CompletionService<AIGenPipeline> completionService = new ExecutorCompletionService<>(executor);
+            Map<Future<AIGenPipeline>, AIGenPipeline> running = new HashMap<>();
+            for (AIGenPipeline pipeline : pipelines) {
+                if (unfinishedDependencies.get(pipeline) == 0) {
+                    running.put(submit(completionService, pipeline), pipeline);
+                }
+            }
+            while (!running.isEmpty()) {
+                Future<AIGenPipeline> done = completionService.take();
+                AIGenPipeline pipeline = running.remove(done);
+                try {
+                    done.get();
+                    for (AIGenPipeline dependent : dependents.getOrDefault(pipeline, Collections.emptyList())) {
+                        int remaining = unfinishedDependencies.merge(dependent, -1, Integer::sum);
+                        if (remaining == 0 && !skipped.contains(dependent)) {
+                            running.put(submit(completionService, dependent), dependent);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    failures.put(pipeline, cause);
+                    log.println("Task failed: " + pipeline.taskOutput + " : " + cause);
+                    skipDependents(pipeline);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while executing tasks", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!failures.isEmpty()) {
+            IllegalStateException exception = new IllegalStateException(failures.size() + " of " + pipelines.size()
+                    + " tasks failed, " + skipped.size() + " dependent tasks were skipped. Failed: "
+                    + failures.keySet());
+            failures.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    /**
+     * Submits a pipeline that is ready; the time until a worker picks it up is recorded as its queue wait.
+     */
+    protected Future<AIGenPipeline> submit(CompletionService<AIGenPipeline> completionService,
+                                           AIGenPipeline pipeline) {
+        long readyTime = System.nanoTime();
+        return completionService.submit(() -> {
+            pipeline.queueWaitNanos = System.nanoTime() - readyTime;
+            return run(pipeline);
+        });
+    }
+
+    protected AIGenPipeline run(AIGenPipeline pipeline) {
+        pipeline.executeTask();
+        return pipeline;
+    }
+
+    /**
+     * Marks all pipelines transitively depending on the failed pipeline as skipped.
+     */
+    protected void skipDependents(AIGenPipeline failed) {
+        Deque<AIGenPipeline> queue = new ArrayDeque<>(dependents.getOrDefault(failed, Collections.emptyList()));
+        while (!queue.isEmpty()) {
+            AIGenPipeline dependent = queue.removeFirst();
+            if (skipped.add(dependent)) {
+                log.println("Skipping " + dependent.taskOutput + " since it depends on failed " + failed.taskOutput);
+                queue.addAll(dependents.getOrDefault(dependent, Collections.emptyList()));
+            }
+        }
+    }
+
+    /**
+     * The pipelines that failed, with the reason.
+     */
+    public Map<AIGenPipeline, Exception> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * The pipelines that were not executed since a pipeline they depend on failed.
+     */
+    public Set<AIGenPipeline> getSkipped() {
+        return Collections.unmodifiableSet(skipped);
+    }
+
+}
@@ -0,0 +1,190 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import net.stoerr.ai.aigenpipeline.framework.chat.TokenUsage;
+import net.stoerr.ai.aigenpipeline.framework.task.TaskStatistics;
+
+/**
+ * Collects the {@link TaskStatistics} of the tasks of a run and prints them at the end, for --report: as table
+ * with the executed tasks, slowest first, or as JSON with all tasks.
+ */
+public class TaskReport {
+
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_TABLE = "table";
+
+    protected static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    protected final Path rootDir;
+    protected final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param rootDir the output files are shown relative to that
+     */
+    public TaskReport(@Nonnull File rootDir) {
+        this.rootDir = rootDir.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Records the statistics of a task.
+     *
+     * @param output the output file of the task
+     * @param marker the marker if the output is an infile prompt
+     */
+    public synchronized void add(@Nonnull File output, @Nullable String marker, @Nonnull TaskStatistics statistics) {
+        Path path = output.toPath().toAbsolutePath().normalize();
+        String name = (path.startsWith(rootDir) ? rootDir.relativize(path) : path).toString();
+        entries.add(new Entry(marker != null ? name + "#" + marker : name, statistics));
+    }
+
+    /**
+     * Prints the report in the given format, {@value #FORMAT_JSON} or {@value #FORMAT_TABLE}.
+     */
+    public synchronized void print(@Nonnull String format, @Nonnull PrintStream out) {
+        if (FORMAT_JSON.equals(format)) {
+            out.println(gson.toJson(toJson()));
+        } else {
+            printTable(out);
+        }
+    }
+
+    protected JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.add("summary", summary());
+        JsonArray tasks = new JsonArray();
+        for (Entry entry : entries) {
+            TaskStatistics stats = entry.statistics;
+            JsonObject task = new JsonObject();
+            task.addProperty("task", entry.name);
+            task.addProperty("executed", stats.isExecuted());
+            task.addProperty("failed", stats.isFailed());
+            task.addProperty("requests", stats.getRequests());
+            TokenUsage usage = stats.getUsage();
+            if (usage != null) {
+                task.addProperty("inputTokens", usage.getInputTokens());
+                task.addProperty("outputTokens", usage.getOutputTokens());
+            }
+            JsonObject millis = new JsonObject();
+            for (TaskStatistics.Phase phase : TaskStatistics.Phase.values()) {
+                millis.addProperty(phase.getLabel(), millis(stats.getNanos(phase)));
+            }
+            task.add("millis", millis);
+            tasks.add(task);
+        }
+        json.add("tasks", tasks);
+        return json;
+    }
+
+    /**
+     * The sums over all tasks.
+     */
+    protected JsonObject summary() {
+        JsonObject json = new JsonObject();
+        json.addProperty("tasks", entries.size());
+        json.addProperty("executed", entries.stream().filter(e -> e.statistics.isExecuted()).count());
+        json.addProperty("failed", entries.stream().filter(e -> e.statistics.isFailed()).count());
+        json.addProperty("requests", entries.stream().mapToInt(e -> e.statistics.getRequests()).sum());
+        json.addProperty("inputTokens", entries.stream().map(e -> e.statistics.getUsage())
+                .filter(u -> u != null).mapToLong(TokenUsage::getInputTokens).sum());
+        json.addProperty("outputTokens", entries.stream().map(e -> e.statistics.getUsage())
+                .filter(u -> u != null).mapToLong(TokenUsage::getOutputTokens).sum());
+        JsonObject millis = new JsonObject();
+        for (TaskStatistics.Phase phase : TaskStatistics.Phase.values()) {
+            millis.addProperty(phase.getLabel(), millis(sum(phase)));
+        }
+        json.add("millis", millis);
+        return json;
+    }
+
+    protected void printTable(PrintStream out) {
+        JsonObject summary = summary();
+        out.println("Task report: " + summary.get("tasks") + " tasks, " + summary.get("executed") + " executed, " +
+                summary.get("failed") + " failed, " + summary.get("requests") + " requests, " +
+                summary.get("inputTokens") + " input and " + summary.get("outputTokens") + " output tokens. " +
+                "Times in ms:");
+        StringBuilder header = new StringBuilder();
+        for (TaskStatistics.Phase phase : TaskStatistics.Phase.values()) {
+            header.append(String.format(Locale.ROOT, "%8s ", abbreviation(phase)));
+        }
+        out.println(header + String.format(Locale.ROOT, "%4s %8s %8s  %s", "reqs", "in tok", "out tok", "task"));
+
+        List<Entry> executed = new ArrayList<>();
+        entries.stream().filter(e -> e.statistics.isExecuted()).forEach(executed::add);
+        executed.sort(Comparator.comparingLong((Entry e) -> e.statistics.getNanos(TaskStatistics.Phase.TOTAL))
+                .reversed());
+        for (Entry entry : executed) {
+            TaskStatistics stats = entry.statistics;
+            StringBuilder line = new StringBuilder();
+            for (TaskStatistics.Phase phase : TaskStatistics.Phase.values()) {
+                line.append(String.format(Locale.ROOT, "%8.1f ", millis(stats.getNanos(phase))));
+            }
+            TokenUsage usage = stats.getUsage();
+            line.append(String.format(Locale.ROOT, "%4d %8s %8s  %s", stats.getRequests(),
+                    usage != null ? String.valueOf(usage.getInputTokens()) : "-",
+                    usage != null ? String.valueOf(usage.getOutputTokens()) : "-",
+                    entry.name + (stats.isFailed() ? " (failed)" : "")));
+            out.println(line);
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (TaskStatistics.Phase phase : TaskStatistics.Phase.values()) {
+            line.append(String.format(Locale.ROOT, "%8.1f ", millis(sum(phase))));
+        }
+        out.println(line + String.format(Locale.ROOT, "%4s %8s %8s  %s", summary.get("requests"),
+                summary.get("inputTokens"), summary.get("outputTokens"), "sum over all " + entries.size() + " tasks"));
+    }
+
+    /**
+     * Short column names for the table.
+     */
+    protected String abbreviation(TaskStatistics.Phase phase) {
+        switch (phase) {
+            case QUEUE_WAIT:
+                return "queue";
+            case VERSION_CHECK:
+                return "check";
+            case PROMPT_ASSEMBLY:
+                return "prompt";
+            case REQUEST_WAIT:
+                return "wait";
+            case TIME_TO_FIRST_BYTE:
+                return "ttfb";
+            default:
+                return phase.getLabel();
+        }
+    }
+
+    protected long sum(TaskStatistics.Phase phase) {
+        return entries.stream().mapToLong(e -> e.statistics.getNanos(phase)).sum();
+    }
+
+    protected static double millis(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+
+    protected static class Entry {
+        protected final String name;
+        protected final TaskStatistics statistics;
+
+        protected Entry(String name, TaskStatistics statistics) {
+            this.name = name;
+            this.statistics = statistics;
+        }
+    }
+
+}
@@ -1,26 +1,56 @@
 package net.stoerr.ai.aigenpipeline.commandline;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
+/**
+ * Topological sort of nodes connected by edges, done with Kahn's algorithm on indexed adjacency lists, so it takes
+ * time linear in the number of nodes and edges and needs no recursion. Nodes that are not ordered by the edges keep
+ * the order in which they were first given.
+ */
 public class TopoSort<T> {
 
-    private List<Edge<T>> edges = new ArrayList<>();
+    /**
+     * The nodes by their index, in the order of their first appearance.
+     */
+    private final List<T> nodes = new ArrayList<>();
+    private final Map<T, Integer> nodeIndex = new HashMap<>();
 
-    protected static class Edge<T> {
-        public final T from;
-        public final T to;
+    /**
+     * Edges from edgeFrom[i] to edgeTo[i] as node indices; only the first edgeCount entries are used.
+     */
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private int edgeCount;
 
-        public Edge(T from, T to) {
-            this.to = to;
-            this.from = from;
-        }
+    /**
+     * Adds a node, in case it doesn't have any edges.
+     */
+    public void addNode(T node) {
+        index(node);
     }
 
     public void addEdge(T from, T to) {
-        edges.add(new Edge<>(from, to));
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+        }
+        edgeFrom[edgeCount] = index(from);
+        edgeTo[edgeCount] = index(to);
+        edgeCount++;
+    }
+
+    protected int index(T node) {
+        Integer index = nodeIndex.get(node);
+        if (index == null) {
+            index = nodes.size();
+            nodeIndex.put(node, index);
+            nodes.add(node);
+        }
+        return index;
     }
 
     /**
@@ -31,32 +61,97 @@ public class TopoSort<T> {
      * @throws TopoSortCycleException if a cycle is detected
      */
     public List<T> sort() throws TopoSortCycleException {
-        List<T> result = new ArrayList<>();
-        Set<T> visited = new HashSet<>();
-        Set<T> visiting = new HashSet<>();
-        for (Edge<T> edge : edges) {
-            if (!visited.contains(edge.to)) {
-                visit(edge.to, visited, visiting, result);
-            }
-        }
+        List<T> result = new ArrayList<>(nodes.size());
+        levels().forEach(result::addAll);
         return result;
     }
 
-    protected void visit(T node, Set<T> visited, Set<T> visiting, List<T> result) throws TopoSortCycleException {
-        if (visiting.contains(node)) {
-            throw new TopoSortCycleException(node);
+    /**
+     * Groups the nodes into levels: the first level contains the nodes without incoming edges, and each further level
+     * the nodes whose predecessors are all in earlier levels. Thus the nodes within a level don't depend on each
+     * other and could be processed in parallel after the previous levels. {@link #sort()} is the concatenation of
+     * the levels.
+     *
+     * @return the levels, each sorted in the order the nodes were first given
+     * @throws TopoSortCycleException if a cycle is detected
+     */
+    public List<List<T>> levels() throws TopoSortCycleException {
+        int n = nodes.size();
+        int[] successorStart = new int[n + 1];
+        int[] inDegree = new int[n];
+        for (int i = 0; i < edgeCount; i++) {
+            successorStart[edgeFrom[i] + 1]++;
+            inDegree[edgeTo[i]]++;
+        }
+        for (int node = 0; node < n; node++) {
+            successorStart[node + 1] += successorStart[node];
+        }
+        // the successors of node are successors[successorStart[node]] to successors[successorStart[node + 1] - 1]
+        int[] successors = new int[edgeCount];
+        int[] fill = Arrays.copyOf(successorStart, n);
+        for (int i = 0; i < edgeCount; i++) {
+            successors[fill[edgeFrom[i]]++] = edgeTo[i];
+        }
+
+        List<List<T>> levels = new ArrayList<>();
+        int[] level = new int[n];
+        int levelSize = 0;
+        for (int node = 0; node < n; node++) {
+            if (inDegree[node] == 0) {
+                level[levelSize++] = node;
+            }
         }
-        if (!visited.contains(node)) {
-            visiting.add(node);
-            for (Edge<T> edge : edges) {
-                if (edge.to.equals(node)) {
-                    visit(edge.from, visited, visiting, result);
+        int processed = 0;
+        int[] nextLevel = new int[n];
+        while (levelSize > 0) {
+            List<T> levelNodes = new ArrayList<>(levelSize);
+            int nextLevelSize = 0;
+            for (int i = 0; i < levelSize; i++) {
+                int node = level[i];
+                levelNodes.add(nodes.get(node));
+                for (int s = successorStart[node]; s < successorStart[node + 1]; s++) {
+                    if (--inDegree[successors[s]] == 0) {
+                        nextLevel[nextLevelSize++] = successors[s];
+                    }
                 }
             }
-            visiting.remove(node);
-            visited.add(node);
-            result.add(node);
+            levels.add(levelNodes);
+            processed += levelSize;
+            Arrays.sort(nextLevel, 0, nextLevelSize);
+            int[] swap = level;
+            level = nextLevel;
+            nextLevel = swap;
+            levelSize = nextLevelSize;
+        }
+        if (processed < n) {
+            throw new TopoSortCycleException(nodes.get(findNodeInCycle(inDegree)));
+        }
+        return levels;
+    }
+
+    /**
+     * After Kahn's algorithm stopped, the remaining nodes (inDegree > 0) each have a remaining predecessor. Going
+     * backwards along those we have to come to a node twice, which is then part of a cycle.
+     */
+    protected int findNodeInCycle(int[] inDegree) {
+        int n = nodes.size();
+        int[] remainingPredecessor = new int[n];
+        Arrays.fill(remainingPredecessor, -1);
+        for (int i = 0; i < edgeCount; i++) {
+            if (inDegree[edgeFrom[i]] > 0) {
+                remainingPredecessor[edgeTo[i]] = edgeFrom[i];
+            }
+        }
+        int node = 0;
+        while (inDegree[node] == 0) {
+            node++;
+        }
+        boolean[] seen = new boolean[n];
+        while (!seen[node]) {
+            seen[node] = true;
+            node = remainingPredecessor[node];
         }
+        return node;
     }
 
     /**
@@ -0,0 +1,163 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.stoerr.ai.aigenpipeline.framework.chat.OpenAIChatBuilderImpl;
+
+public class AIGenPipelineServerTest {
+
+    @Rule
+    public ErrorCollector ec = new ErrorCollector();
+
+    @Test
+    public void testExecuteViaServer() throws Exception {
+        Path serverFile = Paths.get("target/test-daemon/serverfile");
+        Files.deleteIfExists(serverFile);
+        AIGenPipelineServer server = new AIGenPipelineServer(serverFile, 1);
+        server.start();
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        serverThread.start();
+        try {
+            Properties properties = AIGenPipelineClient.readServerFile(serverFile);
+            String secret = properties.getProperty(AIGenPipelineClient.PROPERTY_SECRET);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int status = execute(properties, secret, new String[]{"-cn", "-cne", "-cp"}, out, err);
+            ec.checkThat(status, is(0));
+            ec.checkThat(out.toString(StandardCharsets.UTF_8), containsString("Collected argument lists"));
+
+            out.reset();
+            status = execute(properties, secret, new String[]{"-cn", "-cne", "--nonexistingoption"}, out, err);
+            ec.checkThat(status, is(1));
+            ec.checkThat(err.toString(StandardCharsets.UTF_8), containsString("Unknown option: --nonexistingoption"));
+
+            err.reset();
+            status = execute(properties, "wrongsecret", new String[]{"-cn", "-cne", "-cp"}, out, err);
+            ec.checkThat(status, is(1));
+            ec.checkThat(out.size(), is(0));
+
+            status = execute(properties, secret, new String[]{AIGenPipelineServer.DAEMON_STOP_OPTION}, out, err);
+            ec.checkThat(status, is(0));
+            serverThread.join(10000);
+            assertFalse(serverThread.isAlive());
+            assertFalse(Files.exists(serverFile));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testClientEnvironmentIsUsedForApiKey() throws Exception {
+        Path dir = Paths.get("target/test-daemon").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("prompt.txt"), "Say hi.");
+        Files.deleteIfExists(dir.resolve("keyoutput.txt"));
+        List<String> authorizations = new CopyOnWriteArrayList<>();
+        HttpServer llm = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        llm.createContext("/v1/chat/completions", exchange -> {
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = ("{\"choices\": [{\"message\": {\"role\": \"assistant\", \"content\": \"Hi\"}, " +
+                    "\"finish_reason\": \"stop\"}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        llm.start();
+        Path serverFile = dir.resolve("serverfile-env");
+        AIGenPipelineServer server = new AIGenPipelineServer(serverFile, 1);
+        server.start();
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        serverThread.start();
+        try {
+            Properties properties = AIGenPipelineClient.readServerFile(serverFile);
+            String secret = properties.getProperty(AIGenPipelineClient.PROPERTY_SECRET);
+            // the query makes the builder treat the URL as OpenAI, which takes the key from the environment
+            String url = "http://localhost:" + llm.getAddress().getPort() + "/v1/chat/completions?api=//api.openai.com/";
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int status;
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(properties.getProperty(AIGenPipelineClient.PROPERTY_PORT)))) {
+                status = AIGenPipelineClient.execute(socket, secret, new String[]{"-cn", "-cne", "-u", url,
+                                "-m", "testmodel", "-o", dir.resolve("keyoutput.txt").toString(),
+                                "-p", dir.resolve("prompt.txt").toString()},
+                        Map.of(OpenAIChatBuilderImpl.ENV_OPENAI_API_KEY, "clientkey"),
+                        new ByteArrayInputStream(new byte[0]), out, err);
+            }
+            assertEquals(err.toString(StandardCharsets.UTF_8), 0, status);
+            ec.checkThat(authorizations, is(List.of("Bearer clientkey")));
+        } finally {
+            server.stop();
+            llm.stop(0);
+        }
+    }
+
+    protected int execute(Properties properties, String secret, String[] args,
+                          ByteArrayOutputStream out, ByteArrayOutputStream err) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(properties.getProperty(AIGenPipelineClient.PROPERTY_PORT)))) {
+            return AIGenPipelineClient.execute(socket, secret, args, new ByteArrayInputStream(new byte[0]), out, err);
+        }
+    }
+
+    @Test
+    public void testStdinIsRequestedAndRead() throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream framesOut = new DataOutputStream(frames);
+        framesOut.writeInt(3);
+        framesOut.write("abc".getBytes(StandardCharsets.UTF_8));
+        framesOut.writeInt(2);
+        framesOut.write("de".getBytes(StandardCharsets.UTF_8));
+        framesOut.writeInt(-1);
+        ByteArrayOutputStream toClient = new ByteArrayOutputStream();
+        AIGenPipelineServer.StdinInputStream in = new AIGenPipelineServer.StdinInputStream(
+                new DataInputStream(new ByteArrayInputStream(frames.toByteArray())), new DataOutputStream(toClient));
+        assertEquals(0, toClient.size());
+        assertEquals("abcde", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals(-1, in.read());
+        assertArrayEquals(new byte[]{AIGenPipelineClient.FRAME_STDIN}, toClient.toByteArray());
+        assertTrue(in.eof);
+    }
+
+}
@@ -1,17 +1,44 @@
 package net.stoerr.ai.aigenpipeline.commandline;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ErrorCollector;
 
+import net.stoerr.ai.aigenpipeline.framework.chat.ChatResponseCache;
+import net.stoerr.ai.aigenpipeline.framework.task.PersistentFileIndex;
+
 public class AIGenPipelineTest {
 
     @Rule
@@ -33,4 +60,276 @@ public class AIGenPipelineTest {
         ec.checkThat(p.url,is("https://bottom-url/"));
 
     }
+
+    @Test
+    public void runBatch() throws IOException {
+        Path dir = Paths.get("target/test-batch").toAbsolutePath();
+        Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(dir.resolve("prompt.txt"), "Copy that.");
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        for (String file : new String[]{"first.txt", "second.txt", "sub/third.txt"}) {
+            Files.deleteIfExists(dir.resolve(file));
+        }
+        // the task using first.txt comes first, but has to be executed after the task generating it.
+        Files.writeString(dir.resolve("batch.txt"), "# comment\n" +
+                "-p prompt.txt -o second.txt first.txt\n" +
+                "\n" +
+                "[\"-p\", \"prompt.txt\", \"-o\", \"first.txt\", \"input.txt\"]\n" +
+                "{\"dir\": \"sub\", \"args\": [\"-p\", \"../prompt.txt\", \"-o\", \"third.txt\", \"../second.txt\"]}\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-v", "--batch", "batch.txt"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        ec.checkThat(out.toString(StandardCharsets.UTF_8), containsString("Processing 3 tasks from"));
+        ec.checkThat(Files.readString(dir.resolve("first.txt")), containsString("Hello"));
+        ec.checkThat(Files.readString(dir.resolve("second.txt")), containsString("Hello"));
+        ec.checkThat(Files.readString(dir.resolve("sub/third.txt")), containsString("Hello"));
+
+        Files.writeString(dir.resolve("batch.txt"), "-p prompt.txt -o fourth.txt input.txt\n-p prompt.txt --unknown\n");
+        out.reset();
+        status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "--batch", "batch.txt"});
+        ec.checkThat(status, is(1));
+        ec.checkThat(out.toString(StandardCharsets.UTF_8), containsString("Line 2 of"));
+        ec.checkThat(Files.exists(dir.resolve("fourth.txt")), is(false));
+    }
+
+    @Test
+    public void checkBatchWithJobs() throws IOException {
+        Path dir = Paths.get("target/test-batchcheck").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("prompt.txt"), "Copy that.");
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        Files.deleteIfExists(dir.resolve("first.txt"));
+        Files.deleteIfExists(dir.resolve("second.txt"));
+        Files.writeString(dir.resolve("batch.txt"), "-p prompt.txt -o first.txt input.txt\n" +
+                "-p prompt.txt -o second.txt input.txt\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "--batch", "batch.txt"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+
+        // up to date: the exit code of --check for a single task that doesn't need to be run
+        String[] checkArgs = {"-cn", "-cne", "-m", "copy", "--batch", "batch.txt", "--check", "-j", "2"};
+        ec.checkThat(out.toString(StandardCharsets.UTF_8), p.run(checkArgs), is(1));
+        Files.writeString(dir.resolve("input.txt"), "Hello again");
+        ec.checkThat(out.toString(StandardCharsets.UTF_8), p.run(checkArgs), is(0));
+        String log = out.toString(StandardCharsets.UTF_8);
+        ec.checkThat(log, log.contains("Task failed") || log.contains("Error"), is(false));
+        ec.checkThat(Files.readString(dir.resolve("first.txt")), containsString("Hello"));
+        ec.checkThat(Files.readString(dir.resolve("first.txt")).contains("Hello again"), is(false));
+    }
+
+    @Test
+    public void runBatchFromConfigFile() throws IOException {
+        Path dir = Paths.get("target/test-batchconfig").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve(".aigenpipeline"), "--batch batch.txt\n");
+        Files.writeString(dir.resolve("prompt.txt"), "Copy that.");
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        Files.deleteIfExists(dir.resolve("output.txt"));
+        Files.writeString(dir.resolve("batch.txt"), "-p prompt.txt -o output.txt input.txt\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cne", "-m", "copy"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        ec.checkThat(Files.readString(dir.resolve("output.txt")), containsString("Hello"));
+    }
+
+    @Test
+    public void taskReadingItsOwnFileSeesEarlierOutputs() throws IOException {
+        Path dir = Paths.get("target/test-ownfile").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("input.txt"), "Hello from one");
+        Files.writeString(dir.resolve("prompts.md"), "Start\n" +
+                "<!-- AIGenPromptStart(one)\nCopy that.\nAIGenCommand(one)\n-m copy input.txt\nAIGenPromptEnd(one) -->\n" +
+                "<!-- AIGenEnd(one) -->\n" +
+                "<!-- AIGenPromptStart(two)\nShow the request.\nAIGenCommand(two)\n-m openaijson --hint prompts.md\n" +
+                "AIGenPromptEnd(two) -->\n<!-- AIGenEnd(two) -->\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-os", "*.md"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        String content = Files.readString(dir.resolve("prompts.md"));
+        String outputOfTwo = content.substring(content.indexOf("AIGenPromptEnd(two)"));
+        // the hint file given to two contains the output of one
+        ec.checkThat(outputOfTwo, containsString("Hello from one"));
+    }
+
+    @Test
+    public void reportContainsAllTasks() throws IOException {
+        Path dir = Paths.get("target/test-report").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        Files.writeString(dir.resolve("prompts.md"), "Start\n" +
+                "<!-- AIGenPromptStart(one)\nCopy that.\nAIGenCommand(one)\ninput.txt\nAIGenPromptEnd(one) -->\n" +
+                "<!-- AIGenEnd(one) -->\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-os", "*.md", "-j", "2", "--report", "json"});
+        assertEquals(err.toString(StandardCharsets.UTF_8), 0, status);
+        JsonObject report = JsonParser.parseString(err.toString(StandardCharsets.UTF_8)).getAsJsonObject();
+        ec.checkThat(report.getAsJsonObject("summary").get("tasks").getAsInt(), is(1));
+        ec.checkThat(report.getAsJsonObject("summary").get("executed").getAsInt(), is(1));
+        JsonObject task = report.getAsJsonArray("tasks").get(0).getAsJsonObject();
+        ec.checkThat(task.get("task").getAsString(), is("prompts.md#one"));
+        ec.checkThat(task.getAsJsonObject("millis").has("queueWait"), is(true));
+
+        err.reset();
+        p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+        status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-os", "*.md", "--report", "table"});
+        assertEquals(err.toString(StandardCharsets.UTF_8), 0, status);
+        ec.checkThat(err.toString(StandardCharsets.UTF_8), containsString("1 tasks, 0 executed"));
+
+        assertEquals(1, new AIGenPipeline().run(new String[]{"--report", "xml", "-m", "copy"}));
+    }
+
+    @Test
+    public void outputScanWritesAllPromptsOfAFile() throws IOException {
+        Path dir = Paths.get("target/test-outputscan").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        Files.writeString(dir.resolve("prompts.md"), "Start\n" +
+                "<!-- AIGenPromptStart(one)\nCopy that.\nAIGenCommand(one)\ninput.txt\nAIGenPromptEnd(one) -->\n" +
+                "<!-- AIGenEnd(one) -->\n" +
+                "<!-- AIGenPromptStart(two)\nCopy that, too.\nAIGenCommand(two)\ninput.txt\nAIGenPromptEnd(two) -->\n" +
+                "<!-- AIGenEnd(two) -->\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-os", "*.md"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        String content = Files.readString(dir.resolve("prompts.md"));
+        ec.checkThat(content, containsString("AIGenPromptEnd(one) -->\nHello\n"));
+        ec.checkThat(content, containsString("AIGenPromptEnd(two) -->\nHello\n"));
+        ec.checkThat(p.infilePromptFiles.size(), is(1));
+    }
+
+    @Test
+    public void outputScanIgnoreFiles() throws IOException {
+        Path dir = Paths.get("target/test-outputscanignore").toAbsolutePath();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("input.txt"), "Hello");
+        Files.writeString(dir.resolve(".aigenpipelineignore"), "ignored.md\n");
+        String prompt = "<!-- AIGenPromptStart(one)\nCopy that.\nAIGenCommand(one)\ninput.txt\n" +
+                "AIGenPromptEnd(one) -->\n<!-- AIGenEnd(one) -->\n";
+        Files.writeString(dir.resolve("used.md"), prompt);
+        Files.writeString(dir.resolve("ignored.md"), prompt);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AIGenPipeline p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        int status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-os", "*.md"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        ec.checkThat(Files.readString(dir.resolve("used.md")), containsString("-->\nHello\n"));
+        ec.checkThat(Files.readString(dir.resolve("ignored.md")), is(prompt));
+
+        p = new AIGenPipeline(dir.toFile(), Map.of(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(out, true, StandardCharsets.UTF_8));
+        status = p.run(new String[]{"-cn", "-cne", "-m", "copy", "-os", "*.md", "-osni"});
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, status);
+        ec.checkThat(Files.readString(dir.resolve("ignored.md")), containsString("-->\nHello\n"));
+    }
+
+    @Test
+    public void responseCacheIsSharedBetweenChatBuilders() throws IOException {
+        Path dir = Paths.get("target/test-responsecache-shared").toAbsolutePath();
+        if (Files.exists(dir)) { // cache hits would not write anything
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        HttpServer llm = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        llm.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = ("{\"choices\": [{\"message\": {\"role\": \"assistant\", \"content\": \"Hi\"}, " +
+                    "\"finish_reason\": \"stop\"}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        llm.start();
+        // the cache logs each listing of its directory
+        List<String> listings = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getMessage().startsWith("Listed")) {
+                    listings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ChatResponseCache.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINE);
+        logger.addHandler(handler);
+        try {
+            String url = "http://localhost:" + llm.getAddress().getPort() + "/v1/chat/completions";
+            AIGenPipeline p = new AIGenPipeline();
+            p.readArguments(new String[]{"-cn", "-cne", "-u", url, "-m", "testmodel",
+                    "--responsecache", dir.toString()}, dir.toFile());
+            ec.checkThat(p.makeChatBuilder().userMsg("one").execute(), is("Hi"));
+            ec.checkThat(p.makeChatBuilder().userMsg("two").execute(), is("Hi"));
+            ec.checkThat(listings.toString(), listings.size(), is(1));
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(level);
+            llm.stop(0);
+        }
+    }
+
+    @Test
+    public void configFilesAreReadOnce() throws IOException {
+        URL url = getClass().getClassLoader().getResource("cfgfilecheck/sub/subsub/.aigenpipeline");
+        File cfgFile = new File(url.getPath());
+        AIGenPipeline p = new AIGenPipeline();
+        AIGenArgumentList first = p.readConfigFile(cfgFile);
+        first.getArgs()[0] = "changed";
+        AIGenArgumentList second = p.readConfigFile(cfgFile);
+        ec.checkThat(second.getArgs()[0].equals("changed"), is(false));
+        ec.checkThat(p.configFileCache.size(), is(1));
+        ec.checkThat(p.readConfigFile(new File(cfgFile.getParentFile(), "nonexistent")) == null, is(true));
+        ec.checkThat(p.configFileCache.size(), is(2));
+    }
+
+    @Test
+    public void infilePromptIdsUseScanIndex() throws IOException {
+        Path dir = Paths.get("target/test-scanindex").toAbsolutePath();
+        Files.createDirectories(dir);
+        Path file = dir.resolve("file.md");
+        Files.writeString(file, "<!-- AIGenPromptStart(one) -->\nx\n<!-- AIGenPromptStart(two words) -->\n");
+        FileTime mtime = FileTime.fromMillis(System.currentTimeMillis() - 10000);
+        Files.setLastModifiedTime(file, mtime);
+        Path indexFile = dir.resolve(AIGenPipeline.SCANINDEX_FILE);
+        Files.deleteIfExists(indexFile);
+        PersistentFileIndex scanIndex = PersistentFileIndex.get(indexFile);
+        AIGenPipeline p = new AIGenPipeline();
+        ec.checkThat(p.infilePromptIds(file.toFile(), scanIndex), is(List.of("one", "two words")));
+
+        // same size and modification time: taken from the index without reading the file.
+        Files.writeString(file, "<!-- AIGenPromptStart(eno) -->\nx\n<!-- AIGenPromptStart(two words) -->\n");
+        Files.setLastModifiedTime(file, mtime);
+        ec.checkThat(p.infilePromptIds(file.toFile(), scanIndex), is(List.of("one", "two words")));
+        ec.checkThat(p.infilePromptIds(file.toFile(), null), is(List.of("eno", "two words")));
+
+        Files.writeString(file, "no prompts");
+        Files.setLastModifiedTime(file, mtime);
+        ec.checkThat(p.infilePromptIds(file.toFile(), scanIndex), is(List.of()));
+        scanIndex.save();
+        ec.checkThat(Files.readString(indexFile), containsString(file.toFile().getCanonicalPath()));
+    }
+
 }
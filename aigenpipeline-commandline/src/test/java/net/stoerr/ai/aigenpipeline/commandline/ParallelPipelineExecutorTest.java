@@ -0,0 +1,90 @@
+package net.stoerr.ai.aigenpipeline.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class ParallelPipelineExecutorTest {
+
+    private final List<String> finished = new CopyOnWriteArrayList<>();
+    private final Set<String> started = ConcurrentHashMap.newKeySet();
+    private final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+
+    private class TestPipeline extends AIGenPipeline {
+        private final String name;
+        private final boolean fail;
+
+        TestPipeline(String name, boolean fail) {
+            this.name = name;
+            this.fail = fail;
+        }
+
+        @Override
+        protected void executeTask() {
+            started.add(name);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (fail) {
+                throw new IllegalStateException("Failing " + name);
+            }
+            finished.add(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @Test
+    public void testDependenciesAreRespected() {
+        TestPipeline a = new TestPipeline("a", false);
+        TestPipeline b = new TestPipeline("b", false);
+        TestPipeline c = new TestPipeline("c", false);
+        TestPipeline d = new TestPipeline("d", false);
+        Map<AIGenPipeline, Set<AIGenPipeline>> deps = new HashMap<>();
+        deps.put(c, Set.of(a, b));
+        deps.put(d, Set.of(c));
+        new ParallelPipelineExecutor(Arrays.asList(a, b, c, d), deps, 4, log).execute();
+
+        assertEquals(4, finished.size());
+        assertTrue(finished.indexOf("c") > finished.indexOf("a"));
+        assertTrue(finished.indexOf("c") > finished.indexOf("b"));
+        assertEquals("d", finished.get(3));
+    }
+
+    @Test
+    public void testFailureSkipsOnlyDependents() {
+        TestPipeline a = new TestPipeline("a", true);
+        TestPipeline b = new TestPipeline("b", false);
+        TestPipeline c = new TestPipeline("c", false);
+        TestPipeline d = new TestPipeline("d", false);
+        Map<AIGenPipeline, Set<AIGenPipeline>> deps = new HashMap<>();
+        deps.put(b, Set.of(a));
+        deps.put(c, Set.of(b));
+        ParallelPipelineExecutor executor = new ParallelPipelineExecutor(Arrays.asList(a, b, c, d), deps, 2, log);
+
+        assertThrows(IllegalStateException.class, executor::execute);
+        assertEquals(Collections.singletonList("d"), finished);
+        assertEquals(Set.of("a", "d"), started);
+        assertEquals(Set.of(a), executor.getFailures().keySet());
+        assertEquals(Set.of(b, c), executor.getSkipped());
+    }
+
+}
@@ -1,9 +1,14 @@
 package net.stoerr.ai.aigenpipeline.commandline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -43,4 +48,78 @@ public class TopoSortTest {
         List<Integer> sorted = topoSort.sort();
         assertEquals(Arrays.asList(1, 2, 3, 4), sorted);
     }
+
+    @Test
+    public void testLevels() throws TopoSort.TopoSortCycleException {
+        topoSort.addEdge(2, 4);
+        topoSort.addEdge(1, 2);
+        topoSort.addEdge(1, 3);
+        topoSort.addEdge(3, 4);
+        topoSort.addEdge(5, 3);
+        topoSort.addNode(6);
+        topoSort.addNode(1);
+        assertEquals(Arrays.asList(Arrays.asList(1, 5, 6), Arrays.asList(2, 3), Arrays.asList(4)), topoSort.levels());
+        assertEquals(Arrays.asList(1, 5, 6, 2, 3, 4), topoSort.sort());
+    }
+
+    @Test
+    public void testCycleNodeIsOnCycle() {
+        topoSort.addEdge(0, 1);
+        topoSort.addEdge(1, 2);
+        topoSort.addEdge(2, 3);
+        topoSort.addEdge(3, 1);
+        topoSort.addEdge(3, 4);
+        try {
+            topoSort.sort();
+        } catch (TopoSort.TopoSortCycleException e) {
+            assertTrue(String.valueOf(e.getNode()), Arrays.asList(1, 2, 3).contains(e.getNode()));
+            return;
+        }
+        throw new AssertionError("Cycle not detected");
+    }
+
+    @Test(expected = TopoSort.TopoSortCycleException.class)
+    public void testSelfLoop() throws TopoSort.TopoSortCycleException {
+        topoSort.addEdge(1, 2);
+        topoSort.addEdge(2, 2);
+        topoSort.sort();
+    }
+
+    @Test
+    public void testDeepChain() throws TopoSort.TopoSortCycleException {
+        int length = 200000;
+        for (int i = length - 1; i > 0; i--) {
+            topoSort.addEdge(i - 1, i);
+        }
+        List<Integer> sorted = topoSort.sort();
+        assertEquals(length, sorted.size());
+        for (int i = 0; i < length; i++) {
+            assertEquals(Integer.valueOf(i), sorted.get(i));
+        }
+    }
+
+    @Test
+    public void testLargeRandomGraph() throws TopoSort.TopoSortCycleException {
+        Random random = new Random(1);
+        int n = 10000;
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < 5 * n; i++) {
+            int a = random.nextInt(n);
+            int b = random.nextInt(n);
+            if (a != b) {
+                edges.add(new int[]{Math.min(a, b), Math.max(a, b)});
+                topoSort.addEdge(Math.min(a, b), Math.max(a, b));
+            }
+        }
+        Map<Integer, Integer> levelOf = new HashMap<>();
+        List<List<Integer>> levels = topoSort.levels();
+        for (int level = 0; level < levels.size(); level++) {
+            for (Integer node : levels.get(level)) {
+                levelOf.put(node, level);
+            }
+        }
+        for (int[] edge : edges) {
+            assertTrue(levelOf.get(edge[0]) < levelOf.get(edge[1]));
+        }
+    }
 }
@@ -1,5 +1,11 @@
 package net.stoerr.ai.aigenpipeline.framework.chat;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * Defines the interface for building AI chat interactions, allowing customization of the model, token limits, and messages.
  */
@@ -83,4 +89,67 @@ public interface AIChatBuilder {
      * @return The chat completion response.
      */
     String execute();
+
+    /**
+     * Executes the chat completion request without blocking the calling thread, if the implementation supports that.
+     * The default implementation just calls {@link #execute()} and returns a completed future.
+     *
+     * @return a future for the chat completion response.
+     */
+    default CompletableFuture<String> executeAsync() {
+        try {
+            return CompletableFuture.completedFuture(execute());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Executes the chat completion request and passes the parts of the response to the consumer as they arrive, if
+     * the implementation supports streaming. The default implementation calls {@link #execute()} and passes the
+     * whole response at once.
+     *
+     * @param deltaConsumer receives the parts of the response in order
+     * @return The chat completion response, the same as with {@link #execute()}.
+     */
+    default String executeStreaming(@Nonnull Consumer<String> deltaConsumer) {
+        String result = execute();
+        deltaConsumer.accept(result);
+        return result;
+    }
+
+    /**
+     * Asynchronous version of {@link #executeStreaming(Consumer)}, if the implementation supports that. The default
+     * implementation calls {@link #executeStreaming(Consumer)} and returns a completed future.
+     *
+     * @param deltaConsumer receives the parts of the response in order, possibly from another thread
+     * @return a future for the chat completion response.
+     */
+    default CompletableFuture<String> executeStreamingAsync(@Nonnull Consumer<String> deltaConsumer) {
+        try {
+            return CompletableFuture.completedFuture(executeStreaming(deltaConsumer));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * The token usage of the last execution as reported by the server, if the implementation knows that.
+     *
+     * @return the usage, or null if unknown
+     */
+    @Nullable
+    default TokenUsage getUsage() {
+        return null;
+    }
+
+    /**
+     * Where the time of the requests of the last execution went, if the implementation records that.
+     *
+     * @return the statistics, or null if unknown
+     */
+    @Nullable
+    default RequestStatistics getRequestStatistics() {
+        return null;
+    }
 }
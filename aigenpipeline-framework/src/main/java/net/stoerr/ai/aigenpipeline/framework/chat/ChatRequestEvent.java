@@ -0,0 +1,44 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one HTTP request to the AI, from sending it until the response is completely received - retries and
+ * continuations are separate events. It is committed from a thread of the HttpClient, so its thread is not the caller
+ * waiting for the response, and a stack trace would show nothing useful.
+ */
+@Name("net.stoerr.ai.aigenpipeline.ChatRequest")
+@Label("Chat Request")
+@Category({"AIGenPipeline", "Network"})
+@Description("An HTTP request to the AI server")
+@StackTrace(false)
+public class ChatRequestEvent extends Event {
+
+    @Label("Model")
+    protected String model;
+
+    @Label("Host")
+    protected String host;
+
+    @Label("Request Size")
+    @DataAmount
+    protected long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    protected long responseBytes;
+
+    @Label("Status")
+    @Description("HTTP status of the response, 0 if there was none")
+    protected int status;
+
+    @Label("Error")
+    protected String error;
+
+}
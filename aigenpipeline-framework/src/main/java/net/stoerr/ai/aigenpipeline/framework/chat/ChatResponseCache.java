@@ -0,0 +1,206 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache for chat completion responses, keyed by a hash of the request. Since the requests are made with
+ * temperature 0, the same request is expected to give the same answer, so that saves time and money if the same
+ * generation runs e.g. on several branches or CI machines sharing that directory.
+ * <p>
+ * Each response is stored in a file named after the key. A hit updates the modification time of the file, and if the
+ * total size exceeds the limit, the least recently used entries are removed. To avoid listing the directory on every
+ * write, the total size is estimated from the last listing plus the entries written since then, and the directory is
+ * only listed again when that estimate exceeds the limit. Problems with the cache are only logged, since the request
+ * can always be made without it.
+ */
+public class ChatResponseCache {
+
+    protected static final Logger LOG = Logger.getLogger(ChatResponseCache.class.getName());
+
+    /**
+     * Default size limit: 100 MB.
+     */
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+
+    protected static final String SUFFIX = ".response";
+
+    protected static final Map<Path, ChatResponseCache> CACHES = new ConcurrentHashMap<>();
+
+    protected final Path directory;
+    protected volatile long maxSize;
+
+    /**
+     * Estimated total size of the entries, or -1 if the directory was not listed yet.
+     */
+    protected long estimatedSize = -1;
+
+    /**
+     * @param directory the directory for the cache entries, created if necessary
+     * @param maxSize   the maximum total size of the entries in bytes
+     */
+    public ChatResponseCache(@Nonnull Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The cache for that directory shared within the JVM, so that the size estimate is kept between requests.
+     *
+     * @param maxSize the maximum total size of the entries in bytes
+     */
+    @Nonnull
+    public static ChatResponseCache get(@Nonnull Path directory, long maxSize) {
+        ChatResponseCache cache = CACHES.computeIfAbsent(directory.toAbsolutePath().normalize(),
+                dir -> new ChatResponseCache(dir, maxSize));
+        cache.maxSize = maxSize;
+        return cache;
+    }
+
+    /**
+     * Computes a key for the request: a SHA-256 hash of the given parts.
+     */
+    @Nonnull
+    public static String key(@Nonnull String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Bug: SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * The cached response for that key, or null if there is none.
+     */
+    @Nullable
+    public String get(@Nonnull String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        try {
+            String response = Files.readString(file, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            LOG.fine(() -> "Cache hit for " + key);
+            return response;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read cache entry " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the response for the key and evicts the least recently used entries if the size limit is exceeded.
+     */
+    public void put(@Nonnull String key, @Nonnull String response) {
+        Path file = directory.resolve(key + SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            // write to a temporary file first so that a concurrent reader never sees a partial entry
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.writeString(tmp, response, StandardCharsets.UTF_8);
+            long size = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evictIfNecessary(size);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write cache entry " + file, e);
+        }
+    }
+
+    /**
+     * Adds a written entry to the size estimate and calls {@link #evict()} if the estimate is unknown or exceeds
+     * {@link #maxSize}. Overwritten entries are counted twice, which only makes the next listing come earlier.
+     */
+    protected synchronized void evictIfNecessary(long size) throws IOException {
+        if (estimatedSize >= 0 && estimatedSize + size <= maxSize) {
+            estimatedSize += size;
+        } else {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the total size is within {@link #maxSize}.
+     */
+    protected synchronized void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+        }
+        List<Entry> sorted = new ArrayList<>();
+        long totalSize = 0;
+        for (Path path : entries) {
+            try {
+                Entry entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path));
+                sorted.add(entry);
+                totalSize += entry.size;
+            } catch (NoSuchFileException e) {
+                // removed concurrently
+            }
+        }
+        long listedSize = totalSize;
+        LOG.fine(() -> "Listed " + sorted.size() + " cache entries with " + listedSize + " bytes in " + directory);
+        if (totalSize <= maxSize) {
+            estimatedSize = totalSize;
+            return;
+        }
+        sorted.sort(Comparator.comparing(e -> e.lastUsed));
+        for (Entry entry : sorted) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            Files.deleteIfExists(entry.path);
+            totalSize -= entry.size;
+            LOG.fine(() -> "Evicted cache entry " + entry.path);
+        }
+        estimatedSize = totalSize;
+    }
+
+    protected static class Entry {
+        final Path path;
+        final long size;
+        final FileTime lastUsed;
+
+        Entry(Path path, long size, FileTime lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChatResponseCache{" +
+                "directory=" + directory +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+}
@@ -0,0 +1,138 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Removes a code block fence around the whole streamed response, like {@link OpenAIChatBuilderImpl#CODEBLOCK_PATTERN}
+ * does for a complete response, while passing the text through to a delegate as it arrives. Text that might turn
+ * out to be part of the closing fence (trailing whitespace and backticks) is held back until it is clear that it
+ * isn't, or until {@link #finish()}.
+ * <p>
+ * Since already forwarded text cannot be taken back, there is one difference to the pattern: if the response starts
+ * with a fence but never closes it, the opening fence is still removed. The final result of the request is exact,
+ * though, since that is computed from the complete response.
+ */
+public class CodeBlockStrippingConsumer implements Consumer<String> {
+
+    protected static final Pattern OPENING_FENCE = Pattern.compile("\\A```\\w*");
+    protected static final Pattern CLOSING_FENCE = Pattern.compile("\\A(.*?)\\n*```\\s*\\z", Pattern.DOTALL);
+
+    protected enum State {START, PLAIN, FENCED}
+
+    protected final Consumer<String> delegate;
+    protected final boolean trim;
+    protected final StringBuilder pending = new StringBuilder();
+    protected State state = State.START;
+
+    /**
+     * @param delegate receives the filtered text
+     * @param trim     whether leading and trailing whitespace of the whole response is removed
+     */
+    public CodeBlockStrippingConsumer(@Nonnull Consumer<String> delegate, boolean trim) {
+        this.delegate = delegate;
+        this.trim = trim;
+    }
+
+    @Override
+    public void accept(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        pending.append(delta);
+        if (state == State.START) {
+            decideState();
+        }
+        if (state != State.START) {
+            forwardUpTo(heldBackStart());
+        }
+    }
+
+    /**
+     * Checks whether the response starts with a code fence, as soon as we can know that.
+     */
+    protected void decideState() {
+        int start = 0;
+        while (start < pending.length() && pending.charAt(start) <= ' ') {
+            start++;
+        }
+        String rest = pending.substring(start);
+        if (rest.isEmpty() || "```".startsWith(rest)) {
+            return; // not yet decidable
+        }
+        if (!rest.startsWith("```")) {
+            state = State.PLAIN;
+            if (trim) {
+                pending.delete(0, start);
+            }
+            return;
+        }
+        Matcher matcher = OPENING_FENCE.matcher(rest);
+        matcher.find();
+        if (matcher.end() == rest.length()) {
+            return; // the language identifier might continue
+        }
+        int contentStart = start + matcher.end();
+        if (pending.charAt(contentStart) == '\n') {
+            contentStart++;
+        }
+        pending.delete(0, contentStart);
+        state = State.FENCED;
+    }
+
+    /**
+     * The position from which we have to hold the text back since it might be removed at the end.
+     */
+    protected int heldBackStart() {
+        int pos = pending.length();
+        if (state == State.FENCED) {
+            while (pos > 0 && (isRegexWhitespace(pending.charAt(pos - 1)) || pending.charAt(pos - 1) == '`')) {
+                pos--;
+            }
+        } else if (trim) {
+            while (pos > 0 && pending.charAt(pos - 1) <= ' ') {
+                pos--;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Whitespace as matched by \s in a regular expression.
+     */
+    protected static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    protected void forwardUpTo(int pos) {
+        if (pos > 0) {
+            delegate.accept(pending.substring(0, pos));
+            pending.delete(0, pos);
+        }
+    }
+
+    /**
+     * Called at the end of the response: forwards what was held back, except for a closing fence.
+     */
+    public void finish() {
+        String rest = pending.toString();
+        pending.setLength(0);
+        if (state == State.FENCED) {
+            Matcher matcher = CLOSING_FENCE.matcher(rest);
+            if (matcher.matches()) {
+                rest = matcher.group(1);
+            } else if (trim) {
+                rest = rest.trim();
+            }
+        } else if (trim) {
+            rest = rest.trim();
+        }
+        if (!rest.isEmpty()) {
+            delegate.accept(rest);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Provides a {@link HttpClient} that is shared between requests, so that connections (including the TLS handshake)
+ * and the client's threads are reused. {@link #DEFAULT} is used by all {@link OpenAIChatBuilderImpl} instances unless
+ * they are given another provider.
+ * <p>
+ * The settings have to be made before the first request, since the client is created lazily then and cannot be
+ * changed afterwards. The pool size and keep alive are JVM wide settings of the JDK HTTP client (system properties
+ * jdk.httpclient.connectionPoolSize and jdk.httpclient.keepalive.timeout), which are only effective if they are
+ * set before any HttpClient is created in the JVM.
+ */
+public class HttpClientProvider {
+
+    /**
+     * The provider used by default.
+     */
+    public static final HttpClientProvider DEFAULT = new HttpClientProvider();
+
+    protected Duration connectTimeout = Duration.ofSeconds(20);
+    // use HTTP 1.1 since at least LM Studio doesn't handle that right. Requests are slow, anyway.
+    protected HttpClient.Version version = HttpClient.Version.HTTP_1_1;
+    protected Integer poolSize;
+    protected Duration keepAlive;
+
+    protected HttpClient client;
+
+    /**
+     * Timeout for establishing a connection. Default 20 seconds.
+     */
+    public synchronized HttpClientProvider connectTimeout(@Nonnull Duration connectTimeout) {
+        checkNotCreated();
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * The HTTP version to use. Default is HTTP 1.1 since not all servers handle HTTP 2 right.
+     */
+    public synchronized HttpClientProvider version(@Nonnull HttpClient.Version version) {
+        checkNotCreated();
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Maximum number of idle connections kept open per JVM ; 0 means unlimited (the JDK default).
+     */
+    public synchronized HttpClientProvider poolSize(int poolSize) {
+        checkNotCreated();
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * How long idle connections are kept open - the JDK default is 20 minutes.
+     */
+    public synchronized HttpClientProvider keepAlive(@Nonnull Duration keepAlive) {
+        checkNotCreated();
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * The shared client - created on first call with the current settings.
+     */
+    @Nonnull
+    public synchronized HttpClient getClient() {
+        if (client == null) {
+            if (poolSize != null) {
+                System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(poolSize));
+            }
+            if (keepAlive != null) {
+                System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(keepAlive.getSeconds()));
+            }
+            client = HttpClient.newBuilder()
+                    .version(version)
+                    .connectTimeout(connectTimeout)
+                    .build();
+        }
+        return client;
+    }
+
+    protected void checkNotCreated() {
+        if (client != null) {
+            throw new IllegalStateException("The HttpClient was already created - settings have to be made before the first request.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientProvider{" +
+                "connectTimeout=" + connectTimeout +
+                ", version=" + version +
+                ", poolSize=" + poolSize +
+                ", keepAlive=" + keepAlive +
+                '}';
+    }
+}
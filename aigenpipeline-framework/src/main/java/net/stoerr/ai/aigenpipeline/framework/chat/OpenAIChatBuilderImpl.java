@@ -2,17 +2,32 @@ package net.stoerr.ai.aigenpipeline.framework.chat;
 
 import static net.stoerr.ai.aigenpipeline.framework.task.AIGenerationTask.FIXME;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nonnull;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -51,6 +66,15 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
 
     public static final int DEFAULT_MAX_TOKENS = 2048;
 
+    /**
+     * The request to continue a response that was cut off at the token limit, for servers that don't continue a final
+     * assistant message by themselves.
+     */
+    public static final String CONTINUATION_PROMPT = "Your response was cut off at the token limit. " +
+            "Continue it exactly where it stopped - don't repeat anything, and don't add any introduction or comment.";
+
+    protected static final Logger LOG = Logger.getLogger(OpenAIChatBuilderImpl.class.getName());
+
     protected static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
     public static final String ROLE_SYSTEM = "system";
     public static final String ROLE_USER = "user";
@@ -64,6 +88,15 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
     protected String organizationId;
     protected int maxTokens = DEFAULT_MAX_TOKENS;
     protected String url = AIModelConstants.OPENAI_URL;
+    protected HttpClientProvider httpClientProvider = HttpClientProvider.DEFAULT;
+    protected ChatResponseCache responseCache;
+    protected RetryPolicy retryPolicy = new RetryPolicy();
+    protected Integer requestsPerMinute;
+    protected Integer tokensPerMinute;
+    protected int maxContinuations;
+    protected volatile TokenUsage usage;
+    protected volatile RequestStatistics requestStatistics = new RequestStatistics();
+    protected Map<String, String> env = System.getenv();
 
     @Override
     public AIChatBuilder url(String url) {
@@ -119,6 +152,121 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         return this;
     }
 
+    /**
+     * Sets the provider for the (shared) HttpClient used for the requests. Default is {@link HttpClientProvider#DEFAULT}.
+     */
+    public OpenAIChatBuilderImpl httpClientProvider(HttpClientProvider httpClientProvider) {
+        this.httpClientProvider = httpClientProvider;
+        return this;
+    }
+
+    /**
+     * Sets an optional cache for the responses: a request that was already answered is not sent again.
+     */
+    public OpenAIChatBuilderImpl responseCache(ChatResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * Sets the policy for retrying failed requests. Default is a new {@link RetryPolicy} with its default settings.
+     */
+    public OpenAIChatBuilderImpl retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Limits the requests to the {@link #url} and {@link #model} to stay within these quotas, using a
+     * {@link RateLimiter} shared with all other requests to them. Null means no limit.
+     */
+    public OpenAIChatBuilderImpl rateLimits(Integer requestsPerMinute, Integer tokensPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        return this;
+    }
+
+    /**
+     * Opt-in: if a response is cut off since it reaches {@link #maxTokens(int)}, the partial response is sent back
+     * as assistant message and the model is asked to continue, up to that many times, and the parts are joined.
+     * That costs one additional request per continuation instead of repeating the whole generation with a higher
+     * maxTokens. Default is 0: such a response is an error.
+     */
+    public OpenAIChatBuilderImpl continuations(int maxContinuations) {
+        this.maxContinuations = maxContinuations;
+        return this;
+    }
+
+    /**
+     * The token usage of the last execution as reported by the server, summed over its continuations, or null if
+     * unknown.
+     */
+    @Override
+    public TokenUsage getUsage() {
+        return usage;
+    }
+
+    /**
+     * The timings of the requests of the last execution, summed over retries and continuations.
+     */
+    @Override
+    public RequestStatistics getRequestStatistics() {
+        return requestStatistics;
+    }
+
+    protected RateLimiter rateLimiter() {
+        if (requestsPerMinute == null && tokensPerMinute == null) {
+            return null;
+        }
+        return RateLimiter.get(url, model, requestsPerMinute, tokensPerMinute);
+    }
+
+    /**
+     * The tokens reserved at the rate limiter for a request with these messages.
+     */
+    protected long estimateTokens(List<Message> requestMessages) {
+        return RateLimiter.estimateTokens(characters(requestMessages), maxTokens);
+    }
+
+    protected static long characters(List<Message> requestMessages) {
+        long characters = 0;
+        for (Message message : requestMessages) {
+            characters += message.content.length();
+        }
+        return characters;
+    }
+
+    /**
+     * Remembers the usage of the last response (part).
+     */
+    protected void recordUsage(TokenUsage usage) {
+        this.usage = usage;
+    }
+
+    /**
+     * Corrects the tokens reserved at the rate limiter for a successful request with the usage the server reported
+     * for it, or if it didn't report any, with an estimate from the texts actually sent and received - so that the
+     * reservation for the {@link #maxTokens(int)} is given back in any case.
+     */
+    protected void correctReservation(long reservedTokens, List<Message> requestMessages, TokenUsage partUsage,
+                                      String content) {
+        RateLimiter rateLimiter = rateLimiter();
+        if (rateLimiter != null) {
+            long actualTokens = partUsage != null ? partUsage.getTotalTokens() :
+                    RateLimiter.estimateTokens(characters(requestMessages) + content.length(), 0);
+            rateLimiter.correct(reservedTokens, actualTokens);
+        }
+    }
+
+    /**
+     * The environment the API key and the Anthropic version are taken from if not given explicitly - e.g. that of a
+     * client of a daemon instead of that of the process. Default is the process environment.
+     */
+    public OpenAIChatBuilderImpl env(@Nonnull Map<String, String> env) {
+        this.env = env;
+        return this;
+    }
+
     /**
      * This returns {@link #apiKey} if given, otherwise resorts to environment variables depending on the {@link #url}
      */
@@ -126,9 +274,9 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         String key = apiKey;
         if (key == null) {
             if (isOpenAI()) {
-                key = System.getenv(ENV_OPENAI_API_KEY);
+                key = env.get(ENV_OPENAI_API_KEY);
             } else if (isClaude()) {
-                key = System.getenv(ENV_ANTHROPIC_API_KEY);
+                key = env.get(ENV_ANTHROPIC_API_KEY);
             }
         }
         return key;
@@ -144,16 +292,319 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
 
     @Override
     public String execute() {
+        return waitFor(executeAsync());
+    }
+
+    protected String waitFor(CompletableFuture<String> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for chat completion response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to execute chat completion request", e.getCause());
+        }
+    }
+
+    /**
+     * Sends the request with {@link HttpClient#sendAsync(HttpRequest, HttpResponse.BodyHandler)}, so no thread is
+     * blocked while waiting for the response.
+     */
+    @Override
+    public CompletableFuture<String> executeAsync() {
+        requestStatistics = new RequestStatistics();
         if (MODEL_OPENAIJSON.equals(model)) {
-            return toJson().replaceAll(Pattern.quote(FIXME), "FIXME ");
+            return CompletableFuture.completedFuture(toJson().replaceAll(Pattern.quote(FIXME), "FIXME "));
         }
-        String key = determineApiKey();
-        HttpClient client = HttpClient.newBuilder()
-                // use HTTP 1.1 since at least LM Studio doesn't handle that right. Requests are slow, anyway.
-                .version(HttpClient.Version.HTTP_1_1)
-                .connectTimeout(Duration.ofSeconds(20))
-                .build();
         String json = toJson();
+        String cacheKey = responseCache != null ? ChatResponseCache.key(url, json) : null;
+        String cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return executeWithContinuations(this::requestPart, messages, "", 0, null)
+                .thenApply(result -> cacheResponse(cacheKey, result));
+    }
+
+    /**
+     * Sends a request with these messages and returns the response without checking it.
+     */
+    protected CompletableFuture<ResponsePart> requestPart(List<Message> requestMessages) {
+        HttpRequest request = buildRequest(gson.toJson(makeRequest(requestMessages)));
+        long reservedTokens = estimateTokens(requestMessages);
+        return sendWithRetries(request, HttpResponse.BodyHandlers.ofString(), () -> true, reservedTokens)
+                .handle((response, e) -> {
+                    checkResponse(response, e, response != null ? response.body() : null);
+                    long parseStart = System.nanoTime();
+                    ResponsePart part = parseResponse(response.body());
+                    requestStatistics.addParse(System.nanoTime() - parseStart);
+                    correctReservation(reservedTokens, requestMessages, usage, part.content);
+                    return part;
+                });
+    }
+
+    /**
+     * Executes the request with the requester, and if the response is cut off at the token limit and there are
+     * {@link #continuations(int)} left, requests the continuation and joins the parts.
+     *
+     * @param previous     the parts of the response received so far
+     * @param continuation the number of continuations requested so far
+     * @param usageBefore  the token usage of the previous parts
+     */
+    protected CompletableFuture<String> executeWithContinuations(
+            Function<List<Message>, CompletableFuture<ResponsePart>> requester, List<Message> requestMessages,
+            String previous, int continuation, TokenUsage usageBefore) {
+        return requester.apply(requestMessages).thenCompose(part -> {
+            if (usage == null) { // this part reported no usage - keep the sum of the previous parts
+                usage = usageBefore;
+            } else if (usageBefore != null) {
+                usage = usageBefore.plus(usage);
+            }
+            String content = previous + part.content;
+            boolean lengthLimit = "length".equals(part.finishReason) || "max_tokens".equals(part.finishReason);
+            if (!part.stopped && lengthLimit && continuation < maxContinuations) {
+                LOG.info(() -> "Response from " + url + " reached the token limit - requesting continuation " +
+                        (continuation + 1));
+                // Anthropic continues a final assistant message, but rejects trailing whitespace in it. That is only
+                // stripped in the request: when streaming, the whitespace was passed on already, and the result
+                // has to be the same.
+                String soFar = isClaude() ? content.stripTrailing() : content;
+                List<Message> continuationMessages = new ArrayList<>(messages);
+                continuationMessages.add(new Message(ROLE_ASSISTANT, soFar));
+                if (!isClaude()) {
+                    continuationMessages.add(new Message(ROLE_USER, CONTINUATION_PROMPT));
+                }
+                return executeWithContinuations(requester, continuationMessages, content, continuation + 1, usage);
+            }
+            if (!isClaude()) {
+                content = content.trim();
+            }
+            return CompletableFuture.completedFuture(
+                    checkFinishAndRemoveCodeBlock(content, part.stopped, part.finishReason, part.response));
+        });
+    }
+
+    protected String cacheResponse(String cacheKey, String result) {
+        if (cacheKey != null) {
+            responseCache.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Requests a streamed response ("stream": true) and passes the text to the consumer as it arrives, with a code
+     * block around the whole response removed as in the non-streaming case.
+     */
+    @Override
+    public String executeStreaming(@Nonnull Consumer<String> deltaConsumer) {
+        return waitFor(executeStreamingAsync(deltaConsumer));
+    }
+
+    /**
+     * Asynchronous version of {@link #executeStreaming(Consumer)}. The consumer is called from the threads of the
+     * HttpClient.
+     */
+    @Override
+    public CompletableFuture<String> executeStreamingAsync(@Nonnull Consumer<String> deltaConsumer) {
+        requestStatistics = new RequestStatistics();
+        if (MODEL_OPENAIJSON.equals(model)) {
+            return executeAsync().thenApply(result -> {
+                deltaConsumer.accept(result);
+                return result;
+            });
+        }
+        String cacheKey = responseCache != null ? ChatResponseCache.key(url, toJson()) : null;
+        String cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+        if (cached != null) {
+            deltaConsumer.accept(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+        CodeBlockStrippingConsumer stripper = new CodeBlockStrippingConsumer(deltaConsumer, !isClaude());
+        return executeWithContinuations(requestMessages -> requestStreamingPart(requestMessages, stripper),
+                messages, "", 0, null)
+                .thenApply(result -> {
+                    stripper.finish();
+                    return cacheResponse(cacheKey, result);
+                });
+    }
+
+    /**
+     * Sends a streaming request with these messages, passes the text to the consumer as it arrives, and returns the
+     * response without checking the finish reason.
+     */
+    protected CompletableFuture<ResponsePart> requestStreamingPart(List<Message> requestMessages,
+                                                                   Consumer<String> consumer) {
+        ChatCompletionRequest chatRequest = makeRequest(requestMessages);
+        chatRequest.stream = true;
+        if (!isClaude()) { // OpenAI sends the usage in streamed responses only if asked to; Claude always does.
+            chatRequest.stream_options = new StreamOptions();
+        }
+        HttpRequest request = buildRequest(gson.toJson(chatRequest));
+        StreamingResponseParser parser = new StreamingResponseParser(consumer);
+        StringBuilder errorBody = new StringBuilder();
+        HttpResponse.BodyHandler<Void> bodyHandler = responseInfo -> {
+            if (responseInfo.statusCode() == 200) {
+                return HttpResponse.BodySubscribers.fromLineSubscriber(parser);
+            }
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                    body -> {
+                        errorBody.setLength(0);
+                        errorBody.append(body);
+                        return null;
+                    });
+        };
+        long reservedTokens = estimateTokens(requestMessages);
+        // once the stream has started, parts of the response were passed on already, so we cannot retry.
+        return sendWithRetries(request, bodyHandler, () -> !parser.hasReceivedData(), reservedTokens)
+                .handle((response, e) -> {
+                    checkResponse(response, e, errorBody.toString());
+                    parser.checkErrors();
+                    recordUsage(parser.getUsage());
+                    correctReservation(reservedTokens, requestMessages, parser.getUsage(), parser.getContent());
+                    String finishReason = parser.getFinishReason();
+                    boolean stopped = "stop".equals(finishReason) || "end_turn".equals(finishReason);
+                    return new ResponsePart(parser.getContent(), stopped, finishReason, parser.getContent());
+                });
+    }
+
+    /**
+     * Sends the request and repeats that as the {@link #retryPolicy} says if it fails with a retryable status code or
+     * a network problem.
+     *
+     * @param retryPossible  checked before retrying - whether the body handler can be used again
+     * @param reservedTokens the tokens to reserve at the rate limiter for each attempt; given back if it fails,
+     *                       otherwise the caller has to correct that with {@link #correctReservation}
+     */
+    protected <T> CompletableFuture<HttpResponse<T>> sendWithRetries(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+                                                                  BooleanSupplier retryPossible, long reservedTokens) {
+        return sendWithRetries(request, bodyHandler, retryPossible, reservedTokens, 0, Duration.ZERO);
+    }
+
+    protected <T> CompletableFuture<HttpResponse<T>> sendWithRetries(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+                                                                  BooleanSupplier retryPossible, long reservedTokens,
+                                                                  int attempt, Duration waited) {
+        RateLimiter rateLimiter = rateLimiter();
+        long estimatedTokens = rateLimiter != null ? reservedTokens : 0;
+        Duration limiterWait = rateLimiter != null ? rateLimiter.reserve(estimatedTokens) : Duration.ZERO;
+        CompletableFuture<HttpResponse<T>> sent;
+        if (limiterWait.isZero()) {
+            sent = send(request, bodyHandler);
+        } else {
+            LOG.fine(() -> "Rate limiter delays request to " + url + " by " + limiterWait.toMillis() + "ms");
+            requestStatistics.addWait(limiterWait.toNanos());
+            Executor delayedExecutor = CompletableFuture.delayedExecutor(limiterWait.toMillis(), TimeUnit.MILLISECONDS);
+            sent = CompletableFuture.runAsync(() -> {}, delayedExecutor)
+                    .thenCompose(ignored -> send(request, bodyHandler));
+        }
+        return sent
+                .handle((response, e) -> {
+                    if (rateLimiter != null && (e != null || response.statusCode() != 200)) {
+                        rateLimiter.correct(estimatedTokens, 0); // no tokens were used
+                    }
+                    Duration delay = retryPossible.getAsBoolean() ?
+                            retryPolicy.retryDelay(attempt, response, e, waited) : null;
+                    if (delay == null) {
+                        return e != null ? CompletableFuture.<HttpResponse<T>>failedFuture(e) : CompletableFuture.completedFuture(response);
+                    }
+                    LOG.info(() -> "Retrying request to " + url + " in " + delay.toMillis() + "ms after " +
+                            (e != null ? e : "status " + response.statusCode()));
+                    requestStatistics.addWait(delay.toNanos());
+                    Executor delayedExecutor = CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS);
+                    return CompletableFuture.runAsync(() -> {}, delayedExecutor)
+                            .thenCompose(ignored -> sendWithRetries(request, bodyHandler, retryPossible, reservedTokens,
+                                    attempt + 1, waited.plus(delay)));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Sends the request once and records the timings in the {@link #requestStatistics} and, if a flight recording is
+     * running, as {@link ChatRequestEvent}.
+     */
+    protected <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        RequestStatistics statistics = requestStatistics;
+        ChatRequestEvent event = new ChatRequestEvent();
+        event.begin();
+        long sendTime = System.nanoTime();
+        statistics.addRequest();
+        HttpResponse.BodyHandler<T> timedBodyHandler = responseInfo -> { // called when the headers arrived
+            statistics.addTimeToFirstByte(System.nanoTime() - sendTime);
+            HttpResponse.BodySubscriber<T> subscriber = bodyHandler.apply(responseInfo);
+            return event.isEnabled() ? new CountingBodySubscriber<>(subscriber, event) : subscriber;
+        };
+        return httpClientProvider.getClient().sendAsync(request, timedBodyHandler)
+                .whenComplete((response, e) -> {
+                    statistics.addHttp(System.nanoTime() - sendTime);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.model = model;
+                        event.host = request.uri().getHost();
+                        event.requestBytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+                        event.status = response != null ? response.statusCode() : 0;
+                        event.error = e != null ? e.toString() : null;
+                        event.commit();
+                    }
+                });
+    }
+
+    /**
+     * Counts the bytes of the response body into the {@link ChatRequestEvent#responseBytes}.
+     */
+    protected static class CountingBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+        protected final HttpResponse.BodySubscriber<T> delegate;
+        protected final ChatRequestEvent event;
+
+        protected CountingBodySubscriber(HttpResponse.BodySubscriber<T> delegate, ChatRequestEvent event) {
+            this.delegate = delegate;
+            this.event = event;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            for (ByteBuffer buffer : item) {
+                event.responseBytes += buffer.remaining();
+            }
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+
+    protected void checkResponse(HttpResponse<?> response, Throwable e, String body) {
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException("Failed to execute chat completion request", cause);
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected status code " + response.statusCode() + " : " + body);
+        }
+    }
+
+    protected HttpRequest buildRequest(String json) {
+        String key = determineApiKey();
         HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .header("Content-Type", "application/json")
@@ -162,31 +613,27 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
             builder.header("Authorization", "Bearer " + key);
         } else if (isClaude()) {
             // https://docs.anthropic.com/claude/reference/versions
-            String anthropicVersion = System.getenv(ENV_ANTHROPIC_VERSION);
+            String anthropicVersion = env.get(ENV_ANTHROPIC_VERSION);
             anthropicVersion = anthropicVersion != null ? anthropicVersion : ANTHROPIC_DEFAULT_VERSION;
-            builder.header("x-api-key", determineApiKey())
+            builder.header("x-api-key", key)
                     .header("anthropic-version", anthropicVersion);
         }
         if (organizationId != null) {
             builder.header("OpenAI-Organization", organizationId);
         }
         builder.timeout(Duration.ofSeconds(120));
-        HttpRequest request = builder.build();
-        try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new IllegalStateException("Unexpected status code " + response.statusCode() + " : " + response.body());
-            }
-            return extractResponse(response.body());
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException("Interrupted while waiting for chat completion response", e);
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to execute chat completion request", e);
-        }
+        return builder.build();
     }
 
     public String toJson() {
+        return gson.toJson(makeRequest());
+    }
+
+    protected ChatCompletionRequest makeRequest() {
+        return makeRequest(messages);
+    }
+
+    protected ChatCompletionRequest makeRequest(List<Message> messages) {
         ChatCompletionRequest request;
         if (isClaude()) { // the system prompt for Claude is a request attribute, not a message.
             StringBuilder systemMessage = new StringBuilder();
@@ -210,17 +657,24 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         } else { // OpenAI format
             request = new ChatCompletionRequest(model, messages, 0, maxTokens);
         }
-        return gson.toJson(request);
+        return request;
     }
 
     protected String extractResponse(String json) {
+        ResponsePart part = parseResponse(json);
+        String content = isClaude() ? part.content : part.content.trim();
+        return checkFinishAndRemoveCodeBlock(content, part.stopped, part.finishReason, json);
+    }
+
+    protected ResponsePart parseResponse(String json) {
         ChatCompletionResponse response = gson.fromJson(json, ChatCompletionResponse.class);
+        recordUsage(response.usage != null ? response.usage.toTokenUsage() : null);
         boolean stopped;
         String finish_reason;
         String content;
         if (response.choices != null && !response.choices.isEmpty()) { // OpenAI format
             ChatCompletionResponse.Choice choice = response.choices.get(0);
-            content = choice.message.content.trim();
+            content = choice.message.content;
             finish_reason = choice.finish_reason;
             stopped = "stop".equals(finish_reason);
 
@@ -231,8 +685,12 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         } else {
             throw new IllegalStateException("Could not find answer in response: " + json);
         }
+        return new ResponsePart(content, stopped, finish_reason, json);
+    }
+
+    protected String checkFinishAndRemoveCodeBlock(String content, boolean stopped, String finish_reason, String response) {
         if (!stopped) {
-            String msg = "Invalid finish reason: " + finish_reason + " in response: " + json;
+            String msg = "Invalid finish reason: " + finish_reason + " in response: " + response;
             if (finish_reason != null && finish_reason.contains("length")) {
                 msg += "\n- try increasing maxTokens";
             }
@@ -245,6 +703,26 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         return content;
     }
 
+    /**
+     * A response as received, before checking the finish reason - possibly only a part of the whole answer.
+     */
+    protected static class ResponsePart {
+        final String content;
+        final boolean stopped;
+        final String finishReason;
+        /**
+         * The raw response, for error messages.
+         */
+        final String response;
+
+        ResponsePart(String content, boolean stopped, String finishReason, String response) {
+            this.content = content;
+            this.stopped = stopped;
+            this.finishReason = finishReason;
+            this.response = response;
+        }
+    }
+
     protected static class Message {
         String role;
         String content;
@@ -261,6 +739,8 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         double temperature;
         int max_tokens;
         String system; // only for Anthropic Claude
+        Boolean stream; // omitted if null
+        StreamOptions stream_options; // only for OpenAI streaming requests, omitted if null
 
         ChatCompletionRequest(String model, List<Message> messages, double temperature, int maxTokens) {
             this.model = model;
@@ -270,6 +750,10 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         }
     }
 
+    protected static class StreamOptions {
+        boolean include_usage = true;
+    }
+
     protected static class ChatCompletionResponse {
         // OpenAI style response
         List<Choice> choices;
@@ -278,6 +762,8 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
         List<ClaudeResponseContent> content;
         String stop_reason;
 
+        Usage usage;
+
         static class Choice {
             Message message;
             String finish_reason;
@@ -287,4 +773,20 @@ public class OpenAIChatBuilderImpl implements AIChatBuilder {
             String text;
         }
     }
+
+    /**
+     * Token usage in the format of OpenAI or Anthropic.
+     */
+    protected static class Usage {
+        Long prompt_tokens; // OpenAI
+        Long completion_tokens;
+        Long input_tokens; // Anthropic
+        Long output_tokens;
+
+        TokenUsage toTokenUsage() {
+            long input = prompt_tokens != null ? prompt_tokens : input_tokens != null ? input_tokens : 0;
+            long output = completion_tokens != null ? completion_tokens : output_tokens != null ? output_tokens : 0;
+            return new TokenUsage(input, output);
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A client side limiter for the requests per minute (RPM) and tokens per minute (TPM) of an AI backend, so that
+ * parallel requests stay within the quota instead of provoking rate limit errors. There is one limiter per URL and
+ * model, see {@link #get(String, String, Integer, Integer)}.
+ * <p>
+ * Each limit is a token bucket that holds at most a minute's worth of capacity and is refilled continuously. A
+ * request reserves its estimated tokens up front and is delayed until the buckets are no longer in debt; when the
+ * response arrives the estimate is corrected with the actual usage reported by the server.
+ */
+public class RateLimiter {
+
+    protected static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    protected Bucket requests;
+    protected Bucket tokens;
+
+    protected RateLimiter(@Nullable Integer requestsPerMinute, @Nullable Integer tokensPerMinute) {
+        setLimits(requestsPerMinute, tokensPerMinute);
+    }
+
+    /**
+     * The limiter shared by all requests to that URL and model.
+     *
+     * @param requestsPerMinute the maximum number of requests per minute, or null if unlimited
+     * @param tokensPerMinute   the maximum number of tokens per minute, or null if unlimited
+     */
+    @Nonnull
+    public static RateLimiter get(@Nonnull String url, @Nonnull String model,
+                                  @Nullable Integer requestsPerMinute, @Nullable Integer tokensPerMinute) {
+        RateLimiter limiter = LIMITERS.computeIfAbsent(url + " " + model, k -> new RateLimiter(requestsPerMinute, tokensPerMinute));
+        limiter.setLimits(requestsPerMinute, tokensPerMinute);
+        return limiter;
+    }
+
+    protected synchronized void setLimits(@Nullable Integer requestsPerMinute, @Nullable Integer tokensPerMinute) {
+        requests = Bucket.update(requests, requestsPerMinute, nanoTime());
+        tokens = Bucket.update(tokens, tokensPerMinute, nanoTime());
+    }
+
+    /**
+     * Estimates the tokens of a request: about 4 characters per token for the messages, plus the maximum number of
+     * tokens of the response, since the providers count that against the limit, too.
+     */
+    public static long estimateTokens(long messageCharacters, int maxTokens) {
+        return (messageCharacters + 3) / 4 + maxTokens;
+    }
+
+    /**
+     * Reserves capacity for one request with the estimated number of tokens.
+     *
+     * @return how long the request has to wait before it may be sent; zero if it can be sent right away.
+     */
+    @Nonnull
+    public synchronized Duration reserve(long estimatedTokens) {
+        long now = nanoTime();
+        long waitNanos = 0;
+        if (requests != null) {
+            waitNanos = Math.max(waitNanos, requests.take(1, now));
+        }
+        if (tokens != null) {
+            waitNanos = Math.max(waitNanos, tokens.take(estimatedTokens, now));
+        }
+        return Duration.ofNanos(waitNanos);
+    }
+
+    /**
+     * Corrects the token reservation of a request once the actual usage is known - e.g. 0 if the request failed.
+     */
+    public synchronized void correct(long estimatedTokens, long actualTokens) {
+        if (tokens != null) {
+            tokens.give(estimatedTokens - actualTokens, nanoTime());
+        }
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * A token bucket with a capacity of the per minute limit. The level can go negative when requests reserve
+     * more than is available; they have to wait until it's refilled.
+     */
+    protected static class Bucket {
+        protected final double capacity;
+        protected final double perNano;
+        protected double level;
+        protected long lastNanos;
+
+        protected Bucket(int perMinute, long now) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / 60e9;
+            this.level = perMinute;
+            this.lastNanos = now;
+        }
+
+        /**
+         * A bucket with the new limit that keeps the current level, if possible.
+         */
+        protected static Bucket update(@Nullable Bucket bucket, @Nullable Integer perMinute, long now) {
+            if (perMinute == null || perMinute <= 0) {
+                return null;
+            }
+            if (bucket != null && bucket.capacity == perMinute) {
+                return bucket;
+            }
+            Bucket result = new Bucket(perMinute, now);
+            if (bucket != null) {
+                bucket.refill(now);
+                result.level = Math.min(bucket.level, result.capacity);
+            }
+            return result;
+        }
+
+        protected void refill(long now) {
+            level = Math.min(capacity, level + (now - lastNanos) * perNano);
+            lastNanos = now;
+        }
+
+        /**
+         * Takes the amount (at most the capacity, as a request can never get more) and returns the nanoseconds
+         * until the bucket is no longer in debt.
+         */
+        protected long take(double amount, long now) {
+            refill(now);
+            level -= Math.min(amount, capacity);
+            return level >= 0 ? 0 : (long) Math.ceil(-level / perNano);
+        }
+
+        protected void give(double amount, long now) {
+            refill(now);
+            level = Math.min(capacity, level + amount);
+        }
+    }
+
+}
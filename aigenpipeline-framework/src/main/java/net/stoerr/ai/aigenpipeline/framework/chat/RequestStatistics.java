@@ -0,0 +1,82 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+/**
+ * Where the time of the requests of a chat execution went, summed over retries and continuations. The times are in
+ * nanoseconds. The values are updated from the threads of the HttpClient, so they should be read after the
+ * execution is finished.
+ */
+public class RequestStatistics {
+
+    protected int requests;
+    protected long waitNanos;
+    protected long timeToFirstByteNanos;
+    protected long httpNanos;
+    protected long parseNanos;
+
+    /**
+     * The number of HTTP requests sent, including retries and continuations.
+     */
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Time spent waiting before sending requests: for the rate limiter and before retries.
+     */
+    public synchronized long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Time from sending the requests until the response headers arrived.
+     */
+    public synchronized long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    /**
+     * Time from sending the requests until the response bodies were completely received - for streaming requests
+     * that includes processing the parts.
+     */
+    public synchronized long getHttpNanos() {
+        return httpNanos;
+    }
+
+    /**
+     * Time for parsing the responses.
+     */
+    public synchronized long getParseNanos() {
+        return parseNanos;
+    }
+
+    protected synchronized void addRequest() {
+        requests++;
+    }
+
+    protected synchronized void addWait(long nanos) {
+        waitNanos += nanos;
+    }
+
+    protected synchronized void addTimeToFirstByte(long nanos) {
+        timeToFirstByteNanos += nanos;
+    }
+
+    protected synchronized void addHttp(long nanos) {
+        httpNanos += nanos;
+    }
+
+    protected synchronized void addParse(long nanos) {
+        parseNanos += nanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RequestStatistics{" +
+                "requests=" + requests +
+                ", waitNanos=" + waitNanos +
+                ", timeToFirstByteNanos=" + timeToFirstByteNanos +
+                ", httpNanos=" + httpNanos +
+                ", parseNanos=" + parseNanos +
+                '}';
+    }
+}
@@ -0,0 +1,239 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Decides whether and when a failed chat completion request is retried: on network problems and on status codes
+ * that say the server is overloaded or we hit a rate limit (e.g. 429, or 529 from Anthropic). If the server says how
+ * long to wait (Retry-After, retry-after-ms, or the reset times of an exhausted OpenAI x-ratelimit-* or Anthropic
+ * anthropic-ratelimit-* limit), we wait that long, otherwise we use an exponential backoff. A little random jitter
+ * is added in both cases, so that parallel requests don't all come back at the same moment.
+ */
+public class RetryPolicy {
+
+    /**
+     * Status codes that are retried: timeout, conflict, rate limit, server errors, Anthropic overloaded.
+     */
+    protected static final Set<Integer> RETRYABLE_STATUS = Set.of(408, 409, 429, 500, 502, 503, 504, 529);
+
+    /**
+     * Durations like in OpenAI's x-ratelimit-reset-requests : 1s, 6m0s, 20ms, 1h2m3.5s .
+     */
+    protected static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    protected int maxRetries = 3;
+    protected Duration initialDelay = Duration.ofSeconds(1);
+    protected Duration maxDelay = Duration.ofSeconds(60);
+    protected Duration maxTotalWait = Duration.ofMinutes(5);
+
+    /**
+     * A new policy that never retries. (A new instance each time, since the policies are mutable.)
+     */
+    @Nonnull
+    public static RetryPolicy none() {
+        return new RetryPolicy().maxRetries(0);
+    }
+
+    /**
+     * Maximum number of retries for a request. Default 3.
+     */
+    public RetryPolicy maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * The delay before the first retry if the server doesn't say anything; doubled for each further retry.
+     * Default 1 second.
+     */
+    public RetryPolicy initialDelay(@Nonnull Duration initialDelay) {
+        this.initialDelay = initialDelay;
+        return this;
+    }
+
+    /**
+     * Upper limit for the backoff delay between two attempts. Default 60 seconds.
+     */
+    public RetryPolicy maxDelay(@Nonnull Duration maxDelay) {
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * The total time we are prepared to wait for retries of one request - if the server asks for a longer wait we
+     * give up right away. Default 5 minutes.
+     */
+    public RetryPolicy maxTotalWait(@Nonnull Duration maxTotalWait) {
+        this.maxTotalWait = maxTotalWait;
+        return this;
+    }
+
+    /**
+     * Determines whether the request should be retried after the given outcome.
+     *
+     * @param attempt  the number of retries already done
+     * @param response the response, if one was received
+     * @param error    the exception, if the request failed
+     * @param waited   the time already spent waiting for retries of this request
+     * @return the time to wait before the next attempt, or null if the request should not be retried.
+     */
+    @Nullable
+    public Duration retryDelay(int attempt, @Nullable HttpResponse<?> response, @Nullable Throwable error, @Nonnull Duration waited) {
+        if (attempt >= maxRetries) {
+            return null;
+        }
+        Duration delay;
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof IOException)) {
+                return null;
+            }
+            delay = backoff(attempt);
+        } else if (response != null && RETRYABLE_STATUS.contains(response.statusCode())) {
+            Duration requested = requestedDelay(response.headers(), Instant.now());
+            delay = requested != null ? withJitter(requested) : backoff(attempt);
+        } else {
+            return null;
+        }
+        if (waited.plus(delay).compareTo(maxTotalWait) > 0) {
+            return null;
+        }
+        return delay;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": between half and the full delay.
+     */
+    protected Duration backoff(int attempt) {
+        long millis = initialDelay.toMillis() << Math.min(attempt, 30);
+        millis = Math.min(Math.max(millis, 0), maxDelay.toMillis());
+        long half = millis / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    /**
+     * Adds up to 10% and 100ms random jitter to a delay requested by the server.
+     */
+    protected Duration withJitter(Duration delay) {
+        long maxJitter = Math.max(delay.toMillis() / 10, 100);
+        return delay.plusMillis(ThreadLocalRandom.current().nextLong(maxJitter + 1));
+    }
+
+    /**
+     * The delay the server asks for, or null if it doesn't say.
+     */
+    @Nullable
+    protected Duration requestedDelay(@Nonnull HttpHeaders headers, @Nonnull Instant now) {
+        Optional<String> retryAfterMs = headers.firstValue("retry-after-ms");
+        if (retryAfterMs.isPresent()) {
+            try {
+                return Duration.ofMillis((long) Double.parseDouble(retryAfterMs.get().trim()));
+            } catch (NumberFormatException e) {
+                // try the other headers
+            }
+        }
+        Optional<String> retryAfter = headers.firstValue("retry-after");
+        if (retryAfter.isPresent()) {
+            String value = retryAfter.get().trim();
+            try {
+                return Duration.ofMillis((long) (Double.parseDouble(value) * 1000));
+            } catch (NumberFormatException e) {
+                try {
+                    Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                    return nonNegative(Duration.between(now, date));
+                } catch (DateTimeParseException e2) {
+                    // try the other headers
+                }
+            }
+        }
+        Duration result = null;
+        for (String limit : new String[]{"requests", "tokens"}) { // OpenAI
+            if ("0".equals(headers.firstValue("x-ratelimit-remaining-" + limit).orElse(null))) {
+                result = max(result, headers.firstValue("x-ratelimit-reset-" + limit).map(RetryPolicy::parseDuration).orElse(null));
+            }
+        }
+        for (String limit : new String[]{"requests", "tokens", "input-tokens", "output-tokens"}) { // Anthropic
+            if ("0".equals(headers.firstValue("anthropic-ratelimit-" + limit + "-remaining").orElse(null))) {
+                Duration reset = headers.firstValue("anthropic-ratelimit-" + limit + "-reset")
+                        .map(value -> parseTimestamp(value, now)).orElse(null);
+                result = max(result, reset);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses durations like 6m0s or 20ms ; null if that's not possible.
+     */
+    @Nullable
+    protected static Duration parseDuration(@Nonnull String value) {
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            double number = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    millis += number * 3600_000;
+                    break;
+                case "m":
+                    millis += number * 60_000;
+                    break;
+                case "s":
+                    millis += number * 1000;
+                    break;
+                default:
+                    millis += number;
+                    break;
+            }
+            end = matcher.end();
+        }
+        return end > 0 && end == value.trim().length() ? Duration.ofMillis((long) millis) : null;
+    }
+
+    @Nullable
+    protected static Duration parseTimestamp(@Nonnull String value, @Nonnull Instant now) {
+        try {
+            return nonNegative(Duration.between(now, Instant.parse(value.trim())));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    protected static Duration nonNegative(Duration duration) {
+        return duration.isNegative() ? Duration.ZERO : duration;
+    }
+
+    protected static Duration max(@Nullable Duration a, @Nullable Duration b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) >= 0 ? a : b;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxRetries=" + maxRetries +
+                ", initialDelay=" + initialDelay +
+                ", maxDelay=" + maxDelay +
+                ", maxTotalWait=" + maxTotalWait +
+                '}';
+    }
+}
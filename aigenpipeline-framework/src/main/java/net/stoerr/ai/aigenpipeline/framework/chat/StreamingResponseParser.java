@@ -0,0 +1,225 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Parses the lines of a server-sent events response of a streaming chat completion request, as returned by
+ * OpenAI and Anthropic Claude if "stream": true is given, and passes the text of the deltas to a consumer
+ * as they arrive.
+ *
+ * @see "https://platform.openai.com/docs/api-reference/chat/streaming"
+ * @see "https://docs.anthropic.com/en/api/messages-streaming"
+ */
+public class StreamingResponseParser implements Flow.Subscriber<String> {
+
+    protected static final Gson gson = new Gson();
+
+    protected final Consumer<String> deltaConsumer;
+    protected final StringBuilder content = new StringBuilder();
+    /**
+     * The data lines of the event currently being read.
+     */
+    protected final StringBuilder eventData = new StringBuilder();
+    protected String finishReason;
+    protected String error;
+    protected RuntimeException failure;
+    protected Flow.Subscription subscription;
+    protected volatile boolean receivedData;
+    protected Long inputTokens;
+    protected Long outputTokens;
+
+    public StreamingResponseParser(@Nonnull Consumer<String> deltaConsumer) {
+        this.deltaConsumer = deltaConsumer;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        receivedData = true;
+        if (failure != null) {
+            return;
+        }
+        try {
+            if (line.isEmpty()) {
+                dispatchEvent();
+            } else if (line.startsWith("data:")) {
+                if (eventData.length() > 0) {
+                    eventData.append('\n');
+                }
+                eventData.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+            } // we can ignore event:, id:, retry: and comments since the type is also in the data for Anthropic.
+        } catch (RuntimeException e) {
+            failure = e;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        // the HttpClient reports that through the response future.
+    }
+
+    @Override
+    public void onComplete() {
+        if (failure == null) {
+            try {
+                dispatchEvent();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    protected void dispatchEvent() {
+        if (eventData.length() == 0) {
+            return;
+        }
+        String data = eventData.toString();
+        eventData.setLength(0);
+        if ("[DONE]".equals(data)) { // OpenAI end marker
+            return;
+        }
+        StreamChunk chunk;
+        try {
+            chunk = gson.fromJson(data, StreamChunk.class);
+        } catch (JsonParseException e) {
+            throw new IllegalStateException("Could not parse event data: " + data, e);
+        }
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.usage != null) { // OpenAI with stream_options.include_usage, Anthropic message_delta
+            recordUsage(chunk.usage);
+        }
+        if (chunk.message != null && chunk.message.usage != null) { // Anthropic message_start
+            recordUsage(chunk.message.usage);
+        }
+        String text = null;
+        if (chunk.choices != null && !chunk.choices.isEmpty()) { // OpenAI format
+            StreamChunk.Choice choice = chunk.choices.get(0);
+            if (choice.delta != null) {
+                text = choice.delta.content;
+            }
+            if (choice.finish_reason != null) {
+                finishReason = choice.finish_reason;
+            }
+        } else if (chunk.type != null) { // Anthropic Claude
+            switch (chunk.type) {
+                case "content_block_delta":
+                    text = chunk.delta != null ? chunk.delta.text : null;
+                    break;
+                case "message_delta":
+                    if (chunk.delta != null && chunk.delta.stop_reason != null) {
+                        finishReason = chunk.delta.stop_reason;
+                    }
+                    break;
+                case "error":
+                    error = data;
+                    break;
+                default: // message_start, content_block_start, ping etc. are not interesting.
+                    break;
+            }
+        } else if (chunk.error != null) {
+            error = data;
+        }
+        if (text != null && !text.isEmpty()) {
+            content.append(text);
+            deltaConsumer.accept(text);
+        }
+    }
+
+    /**
+     * Whether anything of the response body was received yet.
+     */
+    public boolean hasReceivedData() {
+        return receivedData;
+    }
+
+    protected void recordUsage(OpenAIChatBuilderImpl.Usage usage) {
+        Long input = usage.prompt_tokens != null ? usage.prompt_tokens : usage.input_tokens;
+        Long output = usage.completion_tokens != null ? usage.completion_tokens : usage.output_tokens;
+        inputTokens = input != null ? input : inputTokens;
+        outputTokens = output != null ? output : outputTokens;
+    }
+
+    /**
+     * The token usage if the server transmitted it, otherwise null.
+     */
+    @Nullable
+    public TokenUsage getUsage() {
+        if (inputTokens == null && outputTokens == null) {
+            return null;
+        }
+        return new TokenUsage(inputTokens != null ? inputTokens : 0, outputTokens != null ? outputTokens : 0);
+    }
+
+    /**
+     * The complete text of the response.
+     */
+    @Nonnull
+    public String getContent() {
+        return content.toString();
+    }
+
+    /**
+     * The finish reason of OpenAI or the stop reason of Anthropic Claude, if it was transmitted.
+     */
+    @Nullable
+    public String getFinishReason() {
+        return finishReason;
+    }
+
+    /**
+     * Throws an exception if the stream could not be parsed or reported an error.
+     */
+    public void checkErrors() throws IllegalStateException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (error != null) {
+            throw new IllegalStateException("Error in streamed response: " + error);
+        }
+    }
+
+    protected static class StreamChunk {
+        // OpenAI
+        List<Choice> choices;
+        OpenAIChatBuilderImpl.Usage usage;
+        // Anthropic
+        String type;
+        Delta delta;
+        Object error;
+        StartMessage message;
+
+        static class Choice {
+            Delta delta;
+            String finish_reason;
+        }
+
+        static class Delta {
+            String content; // OpenAI
+            String text; // Anthropic content_block_delta
+            String stop_reason; // Anthropic message_delta
+        }
+
+        static class StartMessage {
+            OpenAIChatBuilderImpl.Usage usage;
+        }
+    }
+
+}
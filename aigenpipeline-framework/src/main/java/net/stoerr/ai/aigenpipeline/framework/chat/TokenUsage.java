@@ -0,0 +1,48 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+/**
+ * The number of tokens a chat completion request used, as reported by the server.
+ */
+public class TokenUsage {
+
+    protected final long inputTokens;
+    protected final long outputTokens;
+
+    public TokenUsage(long inputTokens, long outputTokens) {
+        this.inputTokens = inputTokens;
+        this.outputTokens = outputTokens;
+    }
+
+    /**
+     * The tokens of the prompt (prompt_tokens for OpenAI, input_tokens for Anthropic).
+     */
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    /**
+     * The tokens of the response (completion_tokens for OpenAI, output_tokens for Anthropic).
+     */
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    public long getTotalTokens() {
+        return inputTokens + outputTokens;
+    }
+
+    /**
+     * The sum of both usages, e.g. for several requests.
+     */
+    public TokenUsage plus(TokenUsage other) {
+        return new TokenUsage(inputTokens + other.inputTokens, outputTokens + other.outputTokens);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenUsage{" +
+                "inputTokens=" + inputTokens +
+                ", outputTokens=" + outputTokens +
+                '}';
+    }
+}
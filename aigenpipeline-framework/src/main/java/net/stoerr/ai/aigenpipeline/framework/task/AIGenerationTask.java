@@ -7,11 +7,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -94,6 +94,9 @@ public class AIGenerationTask implements Cloneable {
     protected Integer maxTokens;
     protected RegenerationCheckStrategy regenerationCheckStrategy = RegenerationCheckStrategy.VERSIONMARKER;
     protected WritingStrategy writingStrategy = WritingStrategy.WITHVERSION;
+    protected boolean streaming;
+    protected PersistentFileIndex versionIndex;
+    protected volatile TaskStatistics statistics;
 
     /**
      * Creates a deep copy of the task.
@@ -183,6 +186,23 @@ public class AIGenerationTask implements Cloneable {
         return this;
     }
 
+    /**
+     * If true, the response is streamed and written into the output file while it arrives, if the
+     * {@link WritingStrategy#progressiveWriter(AIInOut)} supports that for the output. Default false.
+     */
+    public AIGenerationTask setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * Sets an index from which the version markers of unchanged input files are taken instead of reading them.
+     */
+    public AIGenerationTask setVersionIndex(@Nullable PersistentFileIndex versionIndex) {
+        this.versionIndex = versionIndex;
+        return this;
+    }
+
     /**
      * If true, adds the output file as a special input with a hint that this is the current state of the output
      * that has to be updated with minimal changes.
@@ -193,10 +213,20 @@ public class AIGenerationTask implements Cloneable {
     }
 
     public boolean hasToBeRun() {
+        VersionCheckEvent event = new VersionCheckEvent();
+        event.begin();
         List<AIInOut> allInputs = getAllInputs();
         List<String> additionalMarkers = getAdditionalMarkers();
-        List<String> inputVersions = AIVersionMarker.calculateInputMarkers(allInputs, additionalMarkers);
-        return regenerationCheckStrategy.needsRegeneration(output, allInputs, writingStrategy, inputVersions);
+        List<String> inputVersions = AIVersionMarker.calculateInputMarkers(allInputs, additionalMarkers, versionIndex);
+        boolean hasToBeRun = regenerationCheckStrategy.needsRegeneration(output, allInputs, writingStrategy, inputVersions);
+        event.end();
+        if (event.shouldCommit()) {
+            event.output = String.valueOf(output);
+            event.inputs = allInputs.size();
+            event.hasToBeRun = hasToBeRun;
+            event.commit();
+        }
+        return hasToBeRun;
     }
 
     protected List<String> getAdditionalMarkers() {
@@ -282,7 +312,7 @@ public class AIGenerationTask implements Cloneable {
             return null;
         }
         try {
-            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+            return FileContentCache.read(file);
         } catch (IOException e) {
             throw new IllegalArgumentException("Error reading file " + file, e);
         }
@@ -336,25 +366,149 @@ public class AIGenerationTask implements Cloneable {
      * Execute the task if necessary. If the output file is already there and up to date, nothing is done.
      */
     public AIGenerationTask execute(@Nonnull Supplier<AIChatBuilder> chatBuilderFactory, @Nonnull File rootDirectory) {
-        if (!hasToBeRun()) {
-            LOG.info(() -> "Task does not have to be run for: " + output);
+        long start = System.nanoTime();
+        TaskStatistics stats = new TaskStatistics(output);
+        statistics = stats;
+        try {
+            if (!checkHasToBeRun(stats)) {
+                LOG.info(() -> "Task does not have to be run for: " + output);
+                return this;
+            }
+            AIChatBuilder chat = makeChatBuilder(chatBuilderFactory, rootDirectory, stats);
+            ProgressiveOutputWriter writer = streaming ? writingStrategy.progressiveWriter(output) : null;
+            String result;
+            try {
+                if (writer != null) {
+                    try {
+                        result = chat.executeStreaming(writer);
+                        writer.close();
+                    } catch (RuntimeException e) {
+                        writer.abort();
+                        throw e;
+                    }
+                } else {
+                    result = chat.execute();
+                }
+            } finally {
+                stats.addRequestStatistics(chat.getRequestStatistics(), chat.getUsage());
+            }
+            writeResult(result, stats);
             return this;
+        } catch (RuntimeException e) {
+            stats.setFailed(true);
+            throw e;
+        } finally {
+            stats.add(TaskStatistics.Phase.TOTAL, System.nanoTime() - start);
         }
-        AIChatBuilder chat = makeChatBuilder(chatBuilderFactory, rootDirectory);
-        String result = chat.execute();
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(Supplier, File)}: the check whether the task has to be run and
+     * the creation of the request are done in the calling thread, but the request is executed with
+     * {@link AIChatBuilder#executeAsync()} and the output is written when the response arrives.
+     *
+     * @return a future that completes with this task when the output is written, or right away if the task does
+     * not have to be run.
+     */
+    public CompletableFuture<AIGenerationTask> executeAsync(@Nonnull Supplier<AIChatBuilder> chatBuilderFactory, @Nonnull File rootDirectory) {
+        long start = System.nanoTime();
+        TaskStatistics stats = new TaskStatistics(output);
+        statistics = stats;
+        CompletableFuture<AIGenerationTask> future;
+        try {
+            if (!checkHasToBeRun(stats)) {
+                LOG.info(() -> "Task does not have to be run for: " + output);
+                stats.add(TaskStatistics.Phase.TOTAL, System.nanoTime() - start);
+                return CompletableFuture.completedFuture(this);
+            }
+            AIChatBuilder chat = makeChatBuilder(chatBuilderFactory, rootDirectory, stats);
+            ProgressiveOutputWriter writer = streaming ? writingStrategy.progressiveWriter(output) : null;
+            CompletableFuture<String> response;
+            if (writer == null) {
+                response = chat.executeAsync();
+            } else {
+                response = chat.executeStreamingAsync(writer).whenComplete((result, e) -> {
+                    if (e != null) {
+                        writer.abort();
+                    } else {
+                        writer.close();
+                    }
+                });
+            }
+            future = response
+                    .whenComplete((result, e) -> stats.addRequestStatistics(chat.getRequestStatistics(), chat.getUsage()))
+                    .thenApply(result -> {
+                        writeResult(result, stats);
+                        return this;
+                    });
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((task, e) -> {
+            if (e != null) {
+                stats.setFailed(true);
+            }
+            stats.add(TaskStatistics.Phase.TOTAL, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * {@link #hasToBeRun()}, recording the time for that.
+     */
+    protected boolean checkHasToBeRun(@Nonnull TaskStatistics stats) {
+        long start = System.nanoTime();
+        try {
+            boolean hasToBeRun = hasToBeRun();
+            stats.setExecuted(hasToBeRun);
+            return hasToBeRun;
+        } finally {
+            stats.add(TaskStatistics.Phase.VERSION_CHECK, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The statistics of the last {@link #execute(Supplier, File)} or {@link #executeAsync(Supplier, File)} - for
+     * the latter they are complete when the future is done.
+     *
+     * @return the statistics, or null if the task wasn't executed yet
+     */
+    @Nullable
+    public TaskStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * {@link #writeResult(String)}, recording the time for that.
+     */
+    protected void writeResult(String result, @Nonnull TaskStatistics stats) {
+        long start = System.nanoTime();
+        try {
+            writeResult(result);
+        } finally {
+            stats.add(TaskStatistics.Phase.WRITE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes the result of the AI together with the version comment into the output.
+     */
+    protected void writeResult(String result) {
         LOG.fine(() -> "Result for task execution for: " + output + "\n" + result);
         String outputVersion = shaHash(result);
 
-        List<String> allInputMarkers = AIVersionMarker.calculateInputMarkers(getAllInputs(), getAdditionalMarkers());
+        List<String> allInputMarkers = AIVersionMarker.calculateInputMarkers(getAllInputs(), getAdditionalMarkers(), versionIndex);
         String versionComment = new AIVersionMarker(outputVersion, allInputMarkers).toString();
 
         writingStrategy.write(output, result, versionComment);
+        if (regenerationCheckStrategy == RegenerationCheckStrategy.IF_OLDER) {
+            // an unchanged output isn't rewritten, but it has to be newer than the inputs now.
+            output.getFile().setLastModified(System.currentTimeMillis());
+        }
 
         // We check that after writing since that likely makes it easier to check.
         if (result.contains(FIXME)) {
             throw new IllegalStateException("AI returned FIXME for " + output + " :\n" + result);
         }
-        return this;
     }
 
     /**
@@ -364,6 +518,20 @@ public class AIGenerationTask implements Cloneable {
         return makeChatBuilder(chatBuilderFactory, rootDirectory).toJson();
     }
 
+    /**
+     * {@link #makeChatBuilder(Supplier, File)}, recording the time for that.
+     */
+    @Nonnull
+    protected AIChatBuilder makeChatBuilder(@Nonnull Supplier<AIChatBuilder> chatBuilderFactory, @Nonnull File rootDirectory,
+                                            @Nonnull TaskStatistics stats) {
+        long start = System.nanoTime();
+        try {
+            return makeChatBuilder(chatBuilderFactory, rootDirectory);
+        } finally {
+            stats.add(TaskStatistics.Phase.PROMPT_ASSEMBLY, System.nanoTime() - start);
+        }
+    }
+
     @Nonnull
     protected AIChatBuilder makeChatBuilder(@Nonnull Supplier<AIChatBuilder> chatBuilderFactory, @Nonnull File rootDirectory) {
         requireNonNull(output, "Output file not writeable: " + output);
@@ -6,7 +6,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 import javax.annotation.Nonnull;
@@ -39,6 +38,13 @@ public interface AIInOut {
      */
     File getFile();
 
+    /**
+     * The {@link AIVersionMarker#shaHash(String)} of the content.
+     */
+    default String contentHash() throws IllegalStateException {
+        return AIVersionMarker.shaHash(read());
+    }
+
     default boolean sameFile(AIInOut other) {
         return getFile().getAbsolutePath().equals(other.getFile().getAbsolutePath());
     }
@@ -116,7 +122,16 @@ public interface AIInOut {
          */
         public String read() throws IllegalStateException {
             try {
-                return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+                return FileContentCache.read(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + file, e);
+            }
+        }
+
+        @Override
+        public String contentHash() throws IllegalStateException {
+            try {
+                return FileContentCache.shaHash(file);
             } catch (IOException e) {
                 throw new IllegalStateException("Could not read " + file, e);
             }
@@ -130,7 +145,7 @@ public interface AIInOut {
         @Override
         public void write(String content)   {
             try {
-                Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+                FileContentCache.write(file, content);
             } catch (IOException e) {
                 throw new IllegalStateException("Could not write " + file, e);
             }
@@ -3,7 +3,10 @@ package net.stoerr.ai.aigenpipeline.framework.task;
 import static java.util.Objects.requireNonNull;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -24,6 +27,16 @@ import javax.annotation.Nullable;
 public class AIVersionMarker {
 
     public static final Pattern VERSION_MARKER_PATTERN = Pattern.compile("AIGenVersion\\([^)]+\\)");
+
+    protected static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA256 not available", e);
+        }
+    });
+
+    protected static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
     protected final String ourVersion;
     protected final List<String> inputVersions;
 
@@ -68,35 +81,145 @@ public class AIVersionMarker {
      * Determine the version marker for input files / prompt files.
      */
     public static String determineFileVersionMarker(@Nonnull AIInOut inOut) {
+        return inOut.getFile().getName() + "-" + determineVersion(inOut);
+    }
+
+    /**
+     * Like {@link #determineFileVersionMarker(AIInOut)}, but takes the version of plain files from the index if they
+     * did not change.
+     */
+    public static String determineFileVersionMarker(@Nonnull AIInOut inOut, @Nullable PersistentFileIndex versionIndex) {
+        if (versionIndex != null && inOut instanceof AIInOut.AIFileInOut) {
+            return inOut.getFile().getName() + "-" + versionIndex.get(inOut.getFile(), file -> determineVersion(inOut));
+        }
+        return determineFileVersionMarker(inOut);
+    }
+
+    /**
+     * The version given in a version marker in the content, or else the hash of the content.
+     */
+    protected static String determineVersion(@Nonnull AIInOut inOut) {
         String content = inOut.read();
         requireNonNull(content, "Could not read file " + inOut);
         AIVersionMarker aiVersionMarker = AIVersionMarker.find(content);
-        String version;
         if (aiVersionMarker != null) {
-            version = aiVersionMarker.getOurVersion();
-        } else {
-            version = shaHash(content);
+            return aiVersionMarker.getOurVersion();
         }
-        return inOut.getFile().getName() + "-" + version;
+        return shaHash(content); // not inOut.contentHash(), which might read the file again, maybe in another state
     }
 
+    /**
+     * An abbreviated SHA-256 hash of the content, where each run of whitespace counts as a single space.
+     * That is computed as if by {@code content.replaceAll("\\s+", " ")} followed by UTF-8 encoding, but without
+     * creating these copies: the characters are collapsed and encoded into a per-thread buffer that is fed into
+     * a per-thread digest.
+     */
     public static String shaHash(String content) {
-        String condensedWhitespace = content.replaceAll("\\s+", " ");
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(condensedWhitespace.getBytes(StandardCharsets.UTF_8));
-            // turn first 4 bytes into hex number
-            long hashNumber = ((hash[3] * 256L + hash[2]) * 256L + hash[1]) * 256L + hash[0];
-            String hexString = "00000000" + Long.toHexString(Math.abs(hashNumber));
-            return hexString.substring(hexString.length() - 8);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("SHA256 not available", e);
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        byte[] buf = BUFFER.get();
+        int pos = 0;
+        boolean inWhitespace = false;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (pos > buf.length - 4) {
+                digest.update(buf, 0, pos);
+                pos = 0;
+            }
+            if (isWhitespace(c)) {
+                if (!inWhitespace) {
+                    buf[pos++] = ' ';
+                    inWhitespace = true;
+                }
+                continue;
+            }
+            inWhitespace = false;
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(content.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, content.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else { // unpaired surrogates are replaced like String.getBytes does
+                    buf[pos++] = '?';
+                }
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
         }
+        digest.update(buf, 0, pos);
+        return abbreviate(digest.digest());
+    }
+
+    /**
+     * Computes {@link #shaHash(String)} of the UTF-8 encoded file, reading it in chunks through a file channel
+     * without decoding it. Since in UTF-8 the bytes of the whitespace characters never occur within other
+     * characters, the whitespace can be collapsed on the bytes; for valid UTF-8 the result is the same.
+     */
+    public static String shaHash(Path file) throws IOException {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        byte[] buf = BUFFER.get();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
+        boolean inWhitespace = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(byteBuffer.clear())) >= 0) {
+                int pos = 0; // we collapse in place: pos never overtakes i
+                for (int i = 0; i < read; i++) {
+                    byte b = buf[i];
+                    if (b >= 0 && isWhitespace((char) b)) {
+                        if (!inWhitespace) {
+                            buf[pos++] = ' ';
+                            inWhitespace = true;
+                        }
+                    } else {
+                        buf[pos++] = b;
+                        inWhitespace = false;
+                    }
+                }
+                digest.update(buf, 0, pos);
+            }
+        }
+        return abbreviate(digest.digest());
+    }
+
+    /**
+     * Whitespace as matched by \s in a regular expression.
+     */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * Turns the first 4 bytes of the hash into a hex number with 8 digits.
+     */
+    protected static String abbreviate(byte[] hash) {
+        long hashNumber = ((hash[3] * 256L + hash[2]) * 256L + hash[1]) * 256L + hash[0];
+        String hexString = "00000000" + Long.toHexString(Math.abs(hashNumber));
+        return hexString.substring(hexString.length() - 8);
     }
 
     public static List<String> calculateInputMarkers(List<AIInOut> inputs, List<String> additionalMarkers) {
+        return calculateInputMarkers(inputs, additionalMarkers, null);
+    }
+
+    /**
+     * Calculates the version markers of the inputs, using the index for unchanged files if given.
+     */
+    public static List<String> calculateInputMarkers(List<AIInOut> inputs, List<String> additionalMarkers,
+                                                     @Nullable PersistentFileIndex versionIndex) {
         List<String> inputVersions = inputs.stream()
-                .map(AIVersionMarker::determineFileVersionMarker)
+                .map(input -> determineFileVersionMarker(input, versionIndex))
                 .collect(Collectors.toList());
         inputVersions.addAll(additionalMarkers);
         return inputVersions;
@@ -0,0 +1,181 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An in-memory cache for the contents of files and their {@link AIVersionMarker#shaHash(String)}, since in a run with
+ * many tasks the same prompt files, system messages and inputs are read again and again. Entries are checked
+ * against the size and modification time of the file, and writes through {@link #write(File, String)} (as done by
+ * {@link AIInOut} and {@link SegmentedFile}) update the cache, so that later tasks see the new content.
+ * <p>
+ * It is disabled by default, since it holds the contents of all read files in memory; the command line enables it
+ * for the duration of a run, and the daemon while it executes requests.
+ */
+public class FileContentCache {
+
+    protected static volatile boolean enabled;
+
+    protected static final Map<Path, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private FileContentCache() {
+        // only static methods
+    }
+
+    /**
+     * Enables or disables the cache; it is cleared in any case.
+     */
+    public static void setEnabled(boolean enabled) {
+        FileContentCache.enabled = enabled;
+        ENTRIES.clear();
+    }
+
+    /**
+     * Drops all entries, e.g. after a run, but leaves the cache enabled.
+     */
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads the file as UTF-8, from the cache if enabled and the file didn't change.
+     */
+    @Nonnull
+    public static String read(@Nonnull File file) throws IOException {
+        return entry(file).content;
+    }
+
+    /**
+     * The {@link AIVersionMarker#shaHash(String)} of the file content - from the cache if enabled and the file
+     * didn't change.
+     */
+    @Nonnull
+    public static String shaHash(@Nonnull File file) throws IOException {
+        if (!enabled) {
+            return AIVersionMarker.shaHash(file.toPath());
+        }
+        Entry entry = entry(file);
+        if (entry.shaHash == null) {
+            entry.shaHash = AIVersionMarker.shaHash(entry.content);
+        }
+        return entry.shaHash;
+    }
+
+    protected static Entry entry(@Nonnull File file) throws IOException {
+        Path path = file.toPath();
+        if (!enabled) {
+            return new Entry(Files.readString(path, StandardCharsets.UTF_8), -1, null);
+        }
+        Path key = path.toAbsolutePath().normalize();
+        // read the attributes first, so that a concurrent change is noticed next time.
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Entry entry = ENTRIES.get(key);
+        if (entry == null || entry.size != attributes.size() || !attributes.lastModifiedTime().equals(entry.lastModified)) {
+            entry = new Entry(Files.readString(path, StandardCharsets.UTF_8), attributes.size(), attributes.lastModifiedTime());
+            ENTRIES.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the file as UTF-8 and updates the cache. If the file already has exactly that content, it is left
+     * alone, so that its modification time stays and incremental builds don't see a change. Otherwise the content is
+     * written into a temporary file in the same directory, which then atomically replaces the file, so that a reader
+     * or a crash never sees a partially written file.
+     *
+     * @return false if the file wasn't written since it already had that content
+     */
+    public static boolean write(@Nonnull File file, @Nonnull String content) throws IOException {
+        OutputWriteEvent event = new OutputWriteEvent();
+        event.begin();
+        Path path = file.toPath();
+        Path key = path.toAbsolutePath().normalize();
+        ENTRIES.remove(key);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        boolean written = !hasContent(path, bytes);
+        if (written) {
+            writeAtomically(Files.isSymbolicLink(path) ? path.toRealPath() : path, bytes);
+        }
+        if (enabled) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            ENTRIES.put(key, new Entry(content, attributes.size(), attributes.lastModifiedTime()));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = path.toString();
+            event.bytes = bytes.length;
+            event.written = written;
+            event.commit();
+        }
+        return written;
+    }
+
+    protected static boolean hasContent(@Nonnull Path path, @Nonnull byte[] bytes) throws IOException {
+        try {
+            return Files.size(path) == bytes.length && Arrays.equals(Files.readAllBytes(path), bytes);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    protected static void writeAtomically(@Nonnull Path path, @Nonnull byte[] bytes) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        // not Files.createTempFile, since that would create it readable only by the owner
+        Path tmp = dir.resolve("." + path.getFileName() + "." +
+                Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            Files.write(tmp, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            if (Files.exists(path) && Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(path));
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Removes the file from the cache - to be called if it's written otherwise.
+     */
+    public static void invalidate(@Nonnull File file) {
+        ENTRIES.remove(file.toPath().toAbsolutePath().normalize());
+    }
+
+    protected static class Entry {
+        final String content;
+        final long size;
+        final FileTime lastModified;
+        volatile String shaHash;
+
+        Entry(String content, long size, FileTime lastModified) {
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
@@ -2,19 +2,32 @@ package net.stoerr.ai.aigenpipeline.framework.task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
-import java.nio.file.FileVisitResult;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,8 +61,15 @@ public class FileLookupHelper {
     protected static final Pattern BINARYFILEPATTERN = Pattern.compile(
             ".*\\.(jpg|gif|png|[jwet]ar|class|zip|gz|tgz|pdf|doc|xls|ppt|docx|xlsx|pptx|odt|ods)");
 
+    /**
+     * Size of the chunks in which {@link #containsBytes(Path, byte[])} reads files.
+     */
+    protected static final int SCAN_CHUNKSIZE = 64 * 1024;
+
     protected final File directory;
 
+    protected boolean respectIgnoreFiles;
+
     protected FileLookupHelper(String path) {
         try {
             directory = new File(path).getAbsoluteFile().getCanonicalFile();
@@ -102,6 +122,22 @@ public class FileLookupHelper {
      */
     @Nonnull
     public List<File> files(@Nonnull String relpathDirectory, @Nullable String filePathPattern, boolean recursive) {
+        return files(relpathDirectory, filePathPattern, recursive, null);
+    }
+
+    /**
+     * Like {@link #files(String, String, boolean)}, but only returns files for which the filter is true. When
+     * recursive, the directory tree is walked in parallel, and the filter is called for the found files while the
+     * walk is still running. Directories below which no file could match the pattern are skipped, and if
+     * {@link #respectIgnoreFiles(boolean)} is set also those that are ignored.
+     *
+     * @return the files, sorted by path if recursive
+     */
+    @Nonnull
+    public List<File> files(@Nonnull String relpathDirectory, @Nullable String filePathPattern, boolean recursive,
+                            @Nullable Predicate<File> filter) {
+        FileScanEvent event = new FileScanEvent();
+        event.begin();
         if (filePathPattern != null) {
             Matcher fixedPrefixMatcher = NOMETAPREFIXPATTERN.matcher(filePathPattern);
             if (fixedPrefixMatcher.find()) {
@@ -117,32 +153,49 @@ public class FileLookupHelper {
         }
         PathMatcher pathMatcher = null != filePathPattern && !filePathPattern.isEmpty() ?
                 dir.getFileSystem().getPathMatcher("glob:" + filePathPattern) : null;
+        IgnoreRules ignoreRules = respectIgnoreFiles ? IgnoreRules.forDirectory(dir) : null;
         List<File> result = new ArrayList<>();
         if (!recursive) {
             File[] files = dir.toFile().listFiles(file -> pathMatcher == null || pathMatcher.matches(file.toPath())
                     || pathMatcher.matches(dir.relativize(file.toPath())));
             Arrays.stream(Objects.requireNonNull(files, dir.toString()))
-                    .filter(File::isFile).forEach(result::add);
+                    .filter(File::isFile)
+                    .filter(file -> ignoreRules == null || !ignoreRules.isIgnored(file.toPath(), false))
+                    .filter(file -> filter == null || filter.test(file))
+                    .forEach(result::add);
         } else {
+            Queue<File> found = new ConcurrentLinkedQueue<>();
+            DirectoryWalk walk = new DirectoryWalk(dir, dir, pathMatcher, GlobPrefix.of(filePathPattern),
+                    ignoreRules, filter, found);
+            ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
             try {
-                Files.walkFileTree(dir, new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        Path relativePath = dir.relativize(file);
-                        if (Files.isRegularFile(file) &&
-                                (pathMatcher == null || pathMatcher.matches(relativePath) || pathMatcher.matches(file))) {
-                            result.add(file.toFile());
-                        }
-                        return super.visitFile(file, attrs);
-                    }
-                });
-            } catch (IOException e) {
-                LOG.severe("for " + dir + ":" + e);
+                pool.invoke(walk);
+            } finally {
+                pool.shutdown();
             }
+            result.addAll(found);
+            result.sort(null);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.directory = dir.toString();
+            event.pattern = filePathPattern;
+            event.recursive = recursive;
+            event.filesFound = result.size();
+            event.commit();
         }
         return result;
     }
 
+    /**
+     * Whether files and directories excluded by .gitignore or {@value IgnoreRules#PROJECT_IGNORE_FILE} files
+     * (see {@link IgnoreRules}) and .git directories are skipped when searching files. Default is false.
+     */
+    public FileLookupHelper respectIgnoreFiles(boolean respectIgnoreFiles) {
+        this.respectIgnoreFiles = respectIgnoreFiles;
+        return this;
+    }
+
     /**
      * All files matching a filePathRegex that contain a pattern.
      *
@@ -154,24 +207,88 @@ public class FileLookupHelper {
      */
     @Nonnull
     public List<File> filesContaining(@Nonnull String relpathDirectory, @Nonnull String filePathPattern, @Nonnull Pattern pattern, boolean recursive) {
-        List<File> candidates = files(relpathDirectory, filePathPattern, recursive);
-        List<File> result = new ArrayList<>();
-        for (File file : candidates) {
+        return files(relpathDirectory, filePathPattern, recursive, file -> {
             if (file.length() > FILE_MAXSIZE || BINARYFILEPATTERN.matcher(file.getName()).matches()) {
-                continue;
+                return false;
             }
             try {
                 String content = Files.readString(file.toPath());
-                if (pattern.matcher(content).find()) {
-                    result.add(file);
-                }
+                return pattern.matcher(content).find();
+            } catch (MalformedInputException e) { // skip binary file
+                return false;
+            } catch (IOException e) {
+                LOG.severe("for " + file + ":" + e);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * All files matching a filePathRegex that contain a pattern, which can only match where the file contains the
+     * given literal - like {@link SegmentedFile#REGEX_AIGENPROMPTSTART} and "AIGenPromptStart(". The files are first
+     * searched for the UTF-8 bytes of the literal without decoding them, and only files containing it are read and
+     * matched with the pattern. Unlike {@link #filesContaining(String, String, Pattern, boolean)} there is no size
+     * limit for the files.
+     *
+     * @param relpathDirectory the directory relative to the repository root
+     * @param filePathPattern  the file pattern to match
+     * @param literal          a string every match of the pattern contains
+     * @param pattern          the regex to look for in the file content
+     * @param recursive        whether to recurse into subdirectories
+     * @return a list of files
+     */
+    @Nonnull
+    public List<File> filesContaining(@Nonnull String relpathDirectory, @Nonnull String filePathPattern, @Nonnull String literal,
+                                      @Nonnull Pattern pattern, boolean recursive) {
+        byte[] literalBytes = literal.getBytes(StandardCharsets.UTF_8);
+        return files(relpathDirectory, filePathPattern, recursive, file -> {
+            if (BINARYFILEPATTERN.matcher(file.getName()).matches()) {
+                return false;
+            }
+            try {
+                return containsBytes(file.toPath(), literalBytes)
+                        && pattern.matcher(FileContentCache.read(file)).find();
             } catch (MalformedInputException e) { // skip binary file
-                // ignore
+                return false;
             } catch (IOException e) {
                 LOG.severe("for " + file + ":" + e);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Checks whether the file contains the bytes, reading it in chunks.
+     */
+    public static boolean containsBytes(@Nonnull Path file, @Nonnull byte[] bytes) throws IOException {
+        int overlap = bytes.length - 1; // a match could start in one chunk and end in the next
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(SCAN_CHUNKSIZE, 2 * bytes.length));
+        byte[] buf = buffer.array();
+        byte first = bytes[0];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                int limit = buffer.position() - overlap;
+                for (int i = 0; i < limit; i++) {
+                    if (buf[i] == first && matchesAt(buf, i, bytes)) {
+                        return true;
+                    }
+                }
+                if (limit > 0) { // keep the last bytes for the next round
+                    System.arraycopy(buf, limit, buf, 0, overlap);
+                    buffer.position(overlap);
+                }
             }
         }
-        return result;
+        return false;
+    }
+
+    protected static boolean matchesAt(byte[] buf, int pos, byte[] bytes) {
+        for (int j = 1; j < bytes.length; j++) {
+            if (buf[pos + j] != bytes[j]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -190,4 +307,145 @@ public class FileLookupHelper {
         return new File(directory, fullName.replaceAll("[.]", "/") + ".md");
     }
 
+    /**
+     * Walks a directory: forks walks for the subdirectories and checks the files in the directory meanwhile.
+     */
+    protected static class DirectoryWalk extends RecursiveAction {
+        protected final Path root;
+        protected final Path dir;
+        @Nullable
+        protected final PathMatcher pathMatcher;
+        protected final GlobPrefix globPrefix;
+        @Nullable
+        protected final IgnoreRules ignoreRules;
+        @Nullable
+        protected final Predicate<File> filter;
+        protected final Queue<File> found;
+
+        protected DirectoryWalk(Path root, Path dir, @Nullable PathMatcher pathMatcher, GlobPrefix globPrefix,
+                                @Nullable IgnoreRules ignoreRules, @Nullable Predicate<File> filter, Queue<File> found) {
+            this.root = root;
+            this.dir = dir;
+            this.pathMatcher = pathMatcher;
+            this.globPrefix = globPrefix;
+            this.ignoreRules = ignoreRules;
+            this.filter = filter;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryWalk> subdirectoryWalks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if ((ignoreRules == null || !ignoreRules.isIgnored(entry, true))
+                                && globPrefix.couldMatchBelow(root.relativize(entry))) {
+                            DirectoryWalk walk = new DirectoryWalk(root, entry, pathMatcher, globPrefix,
+                                    ignoreRules != null ? ignoreRules.forSubdirectory(entry) : null, filter, found);
+                            walk.fork();
+                            subdirectoryWalks.add(walk);
+                        }
+                    } else if (attributes.isRegularFile() || (attributes.isSymbolicLink() && Files.isRegularFile(entry))) {
+                        files.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.severe("for " + dir + ":" + e);
+            }
+            for (Path file : files) {
+                if ((pathMatcher == null || pathMatcher.matches(root.relativize(file)) || pathMatcher.matches(file))
+                        && (ignoreRules == null || !ignoreRules.isIgnored(file, false))
+                        && (filter == null || filter.test(file.toFile()))) {
+                    found.add(file.toFile());
+                }
+            }
+            subdirectoryWalks.forEach(ForkJoinTask::join);
+        }
+    }
+
+    /**
+     * Checks by the first segments of a glob pattern whether anything below a directory could match it, so that
+     * e.g. if the pattern starts with wildcards for directory names before a ** only the matching directories are
+     * walked. For patterns where this isn't easily determined, no directory is excluded.
+     */
+    protected static class GlobPrefix {
+
+        protected static final GlobPrefix MATCHES_ANYTHING = new GlobPrefix(null);
+
+        /**
+         * The matchers for the segments of the pattern - null for **; null if we don't check.
+         */
+        @Nullable
+        protected final List<PathMatcher> segments;
+
+        protected GlobPrefix(@Nullable List<PathMatcher> segments) {
+            this.segments = segments;
+        }
+
+        protected static GlobPrefix of(@Nullable String pattern) {
+            if (pattern == null || pattern.isEmpty() || pattern.startsWith("/") || pattern.contains("\\")
+                    || BRACES_WITH_SLASH.matcher(pattern).find()) {
+                return MATCHES_ANYTHING;
+            }
+            List<PathMatcher> segments = new ArrayList<>();
+            for (String segment : pattern.split("/")) {
+                if (segment.equals("**")) {
+                    segments.add(null);
+                } else if (segment.contains("**") || segment.isEmpty()) {
+                    return MATCHES_ANYTHING;
+                } else {
+                    segments.add(FileSystems.getDefault().getPathMatcher("glob:" + segment));
+                }
+            }
+            return new GlobPrefix(segments);
+        }
+
+        protected static final Pattern BRACES_WITH_SLASH = Pattern.compile("[{\\[][^}\\]]*/");
+
+        /**
+         * Whether a file below the directory could match.
+         *
+         * @param relativeDirectory the directory, relative to what the pattern is relative to
+         */
+        protected boolean couldMatchBelow(Path relativeDirectory) {
+            if (segments == null) {
+                return true;
+            }
+            // the indices of the segments the next path segment could be matched with
+            Set<Integer> positions = withSkippedStars(Set.of(0));
+            for (Path name : relativeDirectory) {
+                Set<Integer> next = new HashSet<>();
+                for (int position : positions) {
+                    if (position < segments.size()) {
+                        PathMatcher segment = segments.get(position);
+                        if (segment == null) {
+                            next.add(position);
+                        } else if (segment.matches(name)) {
+                            next.add(position + 1);
+                        }
+                    }
+                }
+                positions = withSkippedStars(next);
+            }
+            return positions.stream().anyMatch(position -> position < segments.size());
+        }
+
+        /**
+         * Adds positions after ** since these could also match nothing (which is more than Java globs do, but we
+         * just must not exclude too much).
+         */
+        protected Set<Integer> withSkippedStars(Set<Integer> positions) {
+            Set<Integer> result = new HashSet<>(positions);
+            for (int position : positions) {
+                while (position < segments.size() && segments.get(position) == null) {
+                    result.add(++position);
+                }
+            }
+            return result;
+        }
+    }
+
 }
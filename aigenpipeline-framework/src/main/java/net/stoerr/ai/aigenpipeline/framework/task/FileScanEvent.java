@@ -0,0 +1,31 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a search for files with {@link FileLookupHelper}, including reading the files if it searches for
+ * their content.
+ */
+@Name("net.stoerr.ai.aigenpipeline.FileScan")
+@Label("File Scan")
+@Category({"AIGenPipeline", "File"})
+@Description("Searches a directory for files matching a pattern")
+public class FileScanEvent extends Event {
+
+    @Label("Directory")
+    protected String directory;
+
+    @Label("Pattern")
+    protected String pattern;
+
+    @Label("Recursive")
+    protected boolean recursive;
+
+    @Label("Files Found")
+    protected int filesFound;
+
+}
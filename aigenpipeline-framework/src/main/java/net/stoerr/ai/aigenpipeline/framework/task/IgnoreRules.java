@@ -0,0 +1,188 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The rules from .gitignore files and {@value #PROJECT_IGNORE_FILE} files for a directory, which tell which files and
+ * directories are to be skipped when scanning for files. This supports the usual subset of the gitignore syntax:
+ * comments, negation with !, a trailing / for directories only, patterns containing a / being relative to the
+ * directory of the ignore file, others matching the name at any depth, and *, ?, [...] and ** wildcards.
+ * As in git, rules of ignore files in deeper directories take precedence, and within a directory the last
+ * matching rule wins - the {@value #PROJECT_IGNORE_FILE} is read after the .gitignore, so it can re-include files
+ * with !.
+ */
+public class IgnoreRules {
+
+    protected static final Logger LOG = Logger.getLogger(IgnoreRules.class.getName());
+
+    public static final String GITIGNORE_FILE = ".gitignore";
+
+    /**
+     * An ignore file specific for this tool, in the same format as .gitignore .
+     */
+    public static final String PROJECT_IGNORE_FILE = ".aigenpipelineignore";
+
+    @Nullable
+    protected final IgnoreRules parent;
+    @Nonnull
+    protected final Path directory;
+    @Nonnull
+    protected final List<Rule> rules;
+
+    protected IgnoreRules(@Nullable IgnoreRules parent, @Nonnull Path directory, @Nonnull List<Rule> rules) {
+        this.parent = parent;
+        this.directory = directory;
+        this.rules = rules;
+    }
+
+    /**
+     * The rules for a directory: those from its ignore files and those of its parent directories up to the
+     * root of the git repository (a directory containing .git) it is in, if any.
+     */
+    @Nonnull
+    public static IgnoreRules forDirectory(@Nonnull Path directory) {
+        Path dir = directory.toAbsolutePath().normalize();
+        List<Path> dirs = new ArrayList<>();
+        for (Path current = dir; current != null; current = current.getParent()) {
+            dirs.add(current);
+            if (Files.exists(current.resolve(".git"))) {
+                break;
+            }
+        }
+        if (!Files.exists(dirs.get(dirs.size() - 1).resolve(".git"))) {
+            dirs = List.of(dir); // not in a git repository: we don't know where the project starts.
+        }
+        Collections.reverse(dirs);
+        IgnoreRules rules = new IgnoreRules(null, dirs.get(0), Collections.emptyList());
+        for (Path current : dirs) {
+            rules = rules.forSubdirectory(current);
+        }
+        return rules;
+    }
+
+    /**
+     * The rules for a subdirectory of our directory - these are the same if it doesn't have ignore files.
+     */
+    @Nonnull
+    public IgnoreRules forSubdirectory(@Nonnull Path subdirectory) {
+        List<Rule> subRules = new ArrayList<>();
+        for (String ignoreFile : List.of(GITIGNORE_FILE, PROJECT_IGNORE_FILE)) {
+            Path file = subdirectory.resolve(ignoreFile);
+            if (Files.isRegularFile(file)) {
+                try {
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        Rule rule = Rule.parse(line, subdirectory);
+                        if (rule != null) {
+                            subRules.add(rule);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.warning("Could not read " + file + " : " + e);
+                }
+            }
+        }
+        if (subRules.isEmpty()) {
+            return this;
+        }
+        return new IgnoreRules(this, subdirectory, subRules);
+    }
+
+    /**
+     * Whether the file or directory is ignored - it has to be below our directory.
+     */
+    public boolean isIgnored(@Nonnull Path path, boolean isDirectory) {
+        if (path.getFileName() != null && ".git".equals(path.getFileName().toString())) {
+            return true;
+        }
+        for (IgnoreRules current = this; current != null; current = current.parent) {
+            for (int i = current.rules.size() - 1; i >= 0; i--) {
+                Rule rule = current.rules.get(i);
+                if (rule.matches(path, isDirectory)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected static class Rule {
+        protected final Path base;
+        protected final boolean negated;
+        protected final boolean directoryOnly;
+        /**
+         * Whether the pattern is matched against the path relative to the base, otherwise against the name.
+         */
+        protected final boolean anchored;
+        protected final PathMatcher matcher;
+        /**
+         * For patterns starting with ** / - which in git also match in the base directory itself.
+         */
+        @Nullable
+        protected final PathMatcher matcherWithoutLeadingDirs;
+
+        protected Rule(Path base, boolean negated, boolean directoryOnly, boolean anchored, String glob) {
+            this.base = base;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+            this.matcher = base.getFileSystem().getPathMatcher("glob:" + glob);
+            this.matcherWithoutLeadingDirs = glob.startsWith("**/") ?
+                    base.getFileSystem().getPathMatcher("glob:" + glob.substring(3)) : null;
+        }
+
+        @Nullable
+        protected static Rule parse(String line, Path base) {
+            String pattern = line.endsWith("\\ ") ? line : line.stripTrailing();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                return null;
+            }
+            // braces have no special meaning in gitignore, but in Java globs
+            String glob = pattern.replace("{", "\\{").replace("}", "\\}");
+            try {
+                return new Rule(base, negated, directoryOnly, anchored, glob);
+            } catch (IllegalArgumentException e) {
+                LOG.fine(() -> "Ignoring invalid ignore pattern " + line + " in " + base);
+                return null;
+            }
+        }
+
+        protected boolean matches(Path path, boolean isDirectory) {
+            if (directoryOnly && !isDirectory) {
+                return false;
+            }
+            if (!anchored) {
+                return path.getFileName() != null && matcher.matches(path.getFileName());
+            }
+            Path relative = base.relativize(path);
+            return matcher.matches(relative) ||
+                    (matcherWithoutLeadingDirs != null && matcherWithoutLeadingDirs.matches(relative));
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A file with infile prompts in the format of {@link SegmentedFile#infilePrompting(String)}, which is read and split
+ * in one pass into the blocks of all its prompts. The {@link SegmentedFile}s for the individual prompts from
+ * {@link #getPrompt(String)} share the content, so writing the output of one prompt keeps the outputs other prompts
+ * wrote before, and the file doesn't have to be parsed again for each prompt.
+ * <p>
+ * To rewrite the file only once when several of its prompts are regenerated, the tasks writing into it can announce
+ * themselves with {@link #addPendingWriter()} and report with {@link #writerDone()}: as long as there are pending
+ * writers, written segments are only kept in memory, and the file is written when the last one is done. Reading the
+ * segments always gives the current state.
+ * <p>
+ * Only lines with markers of ids that have an AIGenPromptStart line are separators. The blocks of the prompts must
+ * not overlap, and each has to consist of an AIGenPromptStart, AIGenCommand, AIGenPromptEnd and AIGenEnd line with the
+ * same id, in this order; only for the last block the AIGenEnd line can be missing, then its output extends to the
+ * end of the file.
+ */
+public class InfilePromptFile {
+
+    /**
+     * Matches a whole line with a marker; group "type" is PromptStart, Command, PromptEnd or End, group "id" the id.
+     */
+    protected static final Pattern MARKER_LINE = Pattern.compile(
+            SegmentedFile.wholeLineRegex("AIGen(?<type>PromptStart|Command|PromptEnd|End)\\((?<id>[^\\)\\n]+)\\)"));
+
+    protected static final List<String> BLOCK_TYPES = List.of("PromptStart", "Command", "PromptEnd", "End");
+
+    protected final File file;
+
+    /**
+     * Alternately the text between the marker lines and the marker lines, like {@link SegmentedFile#segments}, but
+     * for all prompts.
+     */
+    protected final List<String> segments = new ArrayList<>();
+
+    /**
+     * The index of the AIGenPromptStart line in {@link #segments} for each id, in the order of the file.
+     */
+    protected final Map<String, Integer> promptStarts = new LinkedHashMap<>();
+
+    protected int pendingWriters;
+
+    /**
+     * Whether {@link #segments} were changed since the file was written.
+     */
+    protected boolean modified;
+
+    /**
+     * Reads and parses the file.
+     *
+     * @throws IllegalArgumentException if the markers are not in the expected order
+     */
+    public InfilePromptFile(@Nonnull File file) throws IOException {
+        this.file = file;
+        String content = FileContentCache.read(file);
+        List<Marker> markers = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        Matcher matcher = MARKER_LINE.matcher(content);
+        while (matcher.find()) {
+            Marker marker = new Marker(matcher.start(), matcher.end(), matcher.group("type"), matcher.group("id"));
+            markers.add(marker);
+            if (BLOCK_TYPES.get(0).equals(marker.type)) {
+                ids.add(marker.id);
+            }
+        }
+
+        int pos = 0;
+        int expected = 0; // index into BLOCK_TYPES for the next marker; 0 is outside of a block
+        String blockId = null;
+        for (Marker marker : markers) {
+            if (!ids.contains(marker.id)) {
+                continue;
+            }
+            boolean isExpected = BLOCK_TYPES.get(expected).equals(marker.type) &&
+                    (expected == 0 || marker.id.equals(blockId));
+            if (!isExpected) {
+                throw new IllegalArgumentException("Likely a usage error: unexpected marker " +
+                        content.substring(marker.start, marker.end).trim() + " in " + file +
+                        (expected != 0 ? " in the block for " + blockId : ""));
+            }
+            if (expected == 0) {
+                blockId = marker.id;
+                if (promptStarts.containsKey(blockId)) {
+                    throw new IllegalArgumentException("Likely a usage error: AIGenPromptStart(" + blockId +
+                            ") occurs several times in " + file);
+                }
+                promptStarts.put(blockId, segments.size() + 1);
+            }
+            segments.add(content.substring(pos, marker.start));
+            segments.add(content.substring(marker.start, marker.end));
+            pos = marker.end;
+            expected = (expected + 1) % BLOCK_TYPES.size();
+        }
+        if (expected != 0 && expected != BLOCK_TYPES.size() - 1) { // only AIGenEnd is optional
+            throw new IllegalArgumentException("Separator AIGen" + BLOCK_TYPES.get(expected) + "(" + blockId +
+                    ") not found in " + file);
+        }
+        segments.add(content.substring(pos));
+    }
+
+    /**
+     * The ids of the prompts in the file, in their order.
+     */
+    @Nonnull
+    public List<String> getPromptIds() {
+        return Collections.unmodifiableList(new ArrayList<>(promptStarts.keySet()));
+    }
+
+    /**
+     * The segments of the prompt with that id: like for a {@link SegmentedFile} with the separators
+     * {@link SegmentedFile#infilePrompting(String)}, segment 1 is the prompt, 2 the arguments from the AIGenCommand
+     * line on, and 3 the output. Only these three segments can be written.
+     *
+     * @throws IllegalArgumentException if the file doesn't contain that prompt
+     */
+    @Nonnull
+    public SegmentedFile getPrompt(@Nonnull String id) {
+        Integer start = promptStarts.get(id);
+        if (start == null) {
+            throw new IllegalArgumentException("Separator AIGenPromptStart(" + id + ") not found in " + file);
+        }
+        return new Prompt(id, start);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Announces a task that might write into the file; the writes are deferred until it reports {@link #writerDone()}.
+     */
+    public synchronized void addPendingWriter() {
+        pendingWriters++;
+    }
+
+    /**
+     * Reports that a task announced with {@link #addPendingWriter()} is done; if it was the last one, the changes are
+     * written.
+     */
+    public synchronized void writerDone() throws IOException {
+        if (pendingWriters > 0) {
+            pendingWriters--;
+        }
+        if (pendingWriters == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the file if segments were changed, even if there are pending writers.
+     */
+    public synchronized void flush() throws IOException {
+        if (modified) {
+            FileContentCache.write(file, joinSegments());
+            modified = false;
+        }
+    }
+
+    protected String joinSegments() {
+        String fullcontent = String.join("", segments);
+        if (!fullcontent.endsWith("\n")) {
+            fullcontent += "\n";
+        }
+        return fullcontent;
+    }
+
+    @Override
+    public String toString() {
+        return "InfilePromptFile [file=" + file + ", prompts=" + promptStarts.keySet() + "]";
+    }
+
+    protected static class Marker {
+        protected final int start;
+        protected final int end;
+        protected final String type;
+        protected final String id;
+
+        protected Marker(int start, int end, String type, String id) {
+            this.start = start;
+            this.end = end;
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The view on one prompt, which reads and writes the shared segments.
+     */
+    protected class Prompt extends SegmentedFile {
+
+        protected final String id;
+        /**
+         * Index of the AIGenPromptStart line in {@link InfilePromptFile#segments}.
+         */
+        protected final int start;
+
+        protected Prompt(String id, int start) {
+            super(InfilePromptFile.this.file, Collections.emptyList());
+            this.id = id;
+            this.start = start;
+        }
+
+        @Override
+        public String getSegment(int i) {
+            synchronized (InfilePromptFile.this) {
+                List<String> segments = InfilePromptFile.this.segments; // not the unused inherited field
+                if (i == 0) {
+                    return String.join("", segments.subList(0, start));
+                } else if (i == 4) {
+                    return start + 7 <= segments.size() ? String.join("", segments.subList(start + 7, segments.size())) : "";
+                } else if (i < 0 || i > 4) {
+                    throw new IndexOutOfBoundsException("No segment " + i + " for prompt " + id + " in " + file);
+                }
+                return segments.get(start + 2 * i - 1);
+            }
+        }
+
+        @Override
+        public void writeSegment(int i, String newSegment) throws IOException {
+            if (i < 1 || i > 3) {
+                throw new IllegalArgumentException("Cannot write segment " + i + " for prompt " + id + " in " + file);
+            }
+            synchronized (InfilePromptFile.this) {
+                InfilePromptFile.this.segments.set(start + 2 * i - 1, newSegment);
+                modified = true;
+                if (pendingWriters == 0) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "InfilePromptFile.Prompt [file=" + file + ", id=" + id + "]";
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for {@link FileContentCache#write(java.io.File, String)}, which is used for all outputs.
+ */
+@Name("net.stoerr.ai.aigenpipeline.OutputWrite")
+@Label("Output Write")
+@Category({"AIGenPipeline", "File"})
+@Description("Writes an output file, unless it already has the content")
+public class OutputWriteEvent extends Event {
+
+    @Label("File")
+    protected String file;
+
+    @Label("Size")
+    @DataAmount
+    protected long bytes;
+
+    @Label("Written")
+    @Description("False if the file already had that content")
+    protected boolean written;
+
+}
@@ -0,0 +1,160 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A persistent index that maps files, identified by canonical path, size and modification time, to a value computed
+ * from their content - e.g. their version marker. If a file didn't change since the value was computed, it
+ * doesn't need to be read again. The index is kept in a text file and shared by all users in the JVM, see
+ * {@link #get(Path)}; it has to be written with {@link #save()} or {@link #saveAll()} at the end.
+ * <p>
+ * Values for files modified within the last {@link #RACY_MILLIS} are not stored, since a further change with the
+ * same size within the timestamp granularity of the file system couldn't be detected.
+ */
+public class PersistentFileIndex {
+
+    protected static final Logger LOG = Logger.getLogger(PersistentFileIndex.class.getName());
+
+    protected static final String HEADER = "# AIGenPipeline file index v1: size, mtime in microseconds, value, path - tab separated";
+
+    protected static final long RACY_MILLIS = 2000;
+
+    protected static final Map<Path, PersistentFileIndex> INDEXES = new ConcurrentHashMap<>();
+
+    protected final Path indexFile;
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    protected volatile boolean modified;
+
+    protected PersistentFileIndex(@Nonnull Path indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * The index stored in that file, shared within the JVM. If the file doesn't exist, the index starts empty.
+     */
+    @Nonnull
+    public static PersistentFileIndex get(@Nonnull Path indexFile) {
+        return INDEXES.computeIfAbsent(indexFile.toAbsolutePath().normalize(), PersistentFileIndex::new);
+    }
+
+    /**
+     * Saves all indexes that were used in this JVM and have changes.
+     */
+    public static void saveAll() {
+        INDEXES.values().forEach(PersistentFileIndex::save);
+    }
+
+    /**
+     * Returns the value for the file from the index if the file didn't change, or computes it and remembers it.
+     */
+    public String get(@Nonnull File file, @Nonnull Function<File, String> compute) {
+        String path;
+        BasicFileAttributes attributes;
+        try {
+            path = file.getCanonicalPath();
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return compute.apply(file);
+        }
+        long size = attributes.size();
+        long mtime = attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.mtime == mtime) {
+            return entry.value;
+        }
+        // we take the attributes from before reading, so that a concurrent change would be noticed next time.
+        String value = compute.apply(file);
+        boolean storable = value != null && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && path.indexOf('\n') < 0;
+        if (storable && attributes.lastModifiedTime().toMillis() < System.currentTimeMillis() - RACY_MILLIS) {
+            entries.put(path, new Entry(size, mtime, value));
+            modified = true;
+        }
+        return value;
+    }
+
+    protected void load() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read index " + indexFile + " - starting with an empty index", e);
+            return;
+        }
+        for (String line : lines) {
+            if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            }
+            String[] parts = line.split("\t", 4);
+            try {
+                entries.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+            } catch (RuntimeException e) {
+                LOG.fine(() -> "Ignoring broken line in " + indexFile + ": " + line);
+            }
+        }
+    }
+
+    /**
+     * Writes the index if it was changed; entries for files that do not exist anymore are dropped.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        entries.keySet().removeIf(path -> !new File(path).exists());
+        try {
+            Path dir = indexFile.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    writer.write(entry.size + "\t" + entry.mtime + "\t" + entry.value + "\t" + mapEntry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write index " + indexFile, e);
+        }
+    }
+
+    protected static class Entry {
+        final long size;
+        final long mtime;
+        final String value;
+
+        Entry(long size, long mtime, String value) {
+            this.size = size;
+            this.mtime = mtime;
+            this.value = value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentFileIndex{" + indexFile + '}';
+    }
+}
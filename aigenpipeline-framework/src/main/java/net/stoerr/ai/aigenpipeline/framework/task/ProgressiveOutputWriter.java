@@ -0,0 +1,89 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes the parts of a streamed response as they arrive into a preview file next to the output file (its name with
+ * {@value #SUFFIX} appended), so that the user can watch the progress of long generations. The output file itself is
+ * not touched: the final content (with version comment) is written by the {@link WritingStrategy} afterwards as
+ * usual, atomically and only if it changed. The preview file is removed by {@link #close()} or {@link #abort()}.
+ */
+public class ProgressiveOutputWriter implements Consumer<String> {
+
+    public static final String SUFFIX = ".streaming";
+
+    protected final File previewFile;
+    protected OutputStream out;
+
+    /**
+     * @param file the output file; the preview is written next to it
+     */
+    public ProgressiveOutputWriter(@Nonnull File file) {
+        this.previewFile = new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * The file the response is written into while it arrives.
+     */
+    @Nonnull
+    public File getPreviewFile() {
+        return previewFile;
+    }
+
+    @Override
+    public synchronized void accept(String delta) {
+        try {
+            if (out == null) {
+                out = new FileOutputStream(previewFile);
+            }
+            out.write(delta.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + previewFile, e);
+        }
+    }
+
+    /**
+     * Closes and removes the preview file after the response is complete.
+     */
+    public synchronized void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + previewFile, e);
+        } finally {
+            out = null;
+            delete();
+        }
+    }
+
+    /**
+     * Removes the preview file after a failed generation.
+     */
+    public synchronized void abort() {
+        try {
+            close();
+        } catch (IllegalStateException e) {
+            // the preview is deleted, anyway.
+        }
+    }
+
+    protected void delete() {
+        try {
+            Files.deleteIfExists(previewFile.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not remove " + previewFile, e);
+        }
+    }
+
+}
@@ -2,10 +2,11 @@ package net.stoerr.ai.aigenpipeline.framework.task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.MalformedInputException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,11 +39,19 @@ public class SegmentedFile {
         readAndParseFile();
     }
 
+    /**
+     * For subclasses that keep the segments elsewhere - this doesn't read the file.
+     */
+    protected SegmentedFile(@Nonnull File file, @Nonnull List<Pattern> separatorPatterns) {
+        this.file = file;
+        this.separatorPatterns = separatorPatterns;
+    }
+
     /**
      * Reads the file and splits it according to the separators.
      */
     protected void readAndParseFile() throws IOException {
-        String content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        String content = FileContentCache.read(file);
         int startpos = 0;
         segments = new ArrayList<>();
         for (Pattern separator : separatorPatterns) {
@@ -72,7 +81,7 @@ public class SegmentedFile {
      */
     public void writeSegment(int i, String newSegment) throws IOException {
         segments.set(2 * i, newSegment);
-        Files.write(file.toPath(), joinSegments().getBytes(StandardCharsets.UTF_8));
+        FileContentCache.write(file, joinSegments());
     }
 
     /**
@@ -136,4 +145,34 @@ public class SegmentedFile {
      */
     public static final Pattern REGEX_AIGENPROMPTSTART = Pattern.compile("AIGenPromptStart\\((?<id>[^\\)]+)\\)");
 
+    /**
+     * A literal each match of {@link #REGEX_AIGENPROMPTSTART} contains, for quickly searching files.
+     */
+    public static final String AIGENPROMPTSTART = "AIGenPromptStart(";
+
+    /**
+     * The ids of the infile prompts in the file, as found by {@link #REGEX_AIGENPROMPTSTART}. This is quick for files
+     * not containing any, since these are only searched for the bytes of {@link #AIGENPROMPTSTART} without decoding.
+     *
+     * @return the ids in the order of their occurrence; empty if there are none or the file is not UTF-8 text
+     */
+    @Nonnull
+    public static List<String> infilePromptIds(@Nonnull File file) throws IOException {
+        if (!FileLookupHelper.containsBytes(file.toPath(), AIGENPROMPTSTART.getBytes(StandardCharsets.UTF_8))) {
+            return Collections.emptyList();
+        }
+        String content;
+        try {
+            content = FileContentCache.read(file);
+        } catch (MalformedInputException e) { // binary file
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>();
+        Matcher matcher = REGEX_AIGENPROMPTSTART.matcher(content);
+        while (matcher.find()) {
+            ids.add(matcher.group("id"));
+        }
+        return ids;
+    }
+
 }
@@ -0,0 +1,143 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.stoerr.ai.aigenpipeline.framework.chat.RequestStatistics;
+import net.stoerr.ai.aigenpipeline.framework.chat.TokenUsage;
+
+/**
+ * Where the time of an execution of an {@link AIGenerationTask} went, and the tokens it used - to find the slow and
+ * the expensive tasks. The times are in nanoseconds.
+ */
+public class TaskStatistics {
+
+    /**
+     * The phases of a task execution. {@link #TOTAL} is the whole execution, which contains all others except
+     * {@link #QUEUE_WAIT}; {@link #TIME_TO_FIRST_BYTE} is part of {@link #HTTP}.
+     */
+    public enum Phase {
+        /**
+         * Waiting for a free worker after all tasks it depends on are done - only known to the caller.
+         */
+        QUEUE_WAIT("queueWait"),
+        /**
+         * Checking whether the output is up to date.
+         */
+        VERSION_CHECK("versionCheck"),
+        /**
+         * Reading the inputs and creating the request.
+         */
+        PROMPT_ASSEMBLY("promptAssembly"),
+        /**
+         * Waiting for the rate limiter and before retries.
+         */
+        REQUEST_WAIT("requestWait"),
+        TIME_TO_FIRST_BYTE("timeToFirstByte"),
+        HTTP("http"),
+        PARSE("parse"),
+        WRITE("write"),
+        TOTAL("total");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * A name for reports.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    protected final AIInOut output;
+    protected final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+    protected boolean executed;
+    protected boolean failed;
+    protected int requests;
+    protected TokenUsage usage;
+
+    public TaskStatistics(@Nonnull AIInOut output) {
+        this.output = output;
+    }
+
+    public AIInOut getOutput() {
+        return output;
+    }
+
+    public synchronized void add(@Nonnull Phase phase, long nanos) {
+        this.nanos.merge(phase, nanos, Long::sum);
+    }
+
+    public synchronized long getNanos(@Nonnull Phase phase) {
+        return nanos.getOrDefault(phase, 0L);
+    }
+
+    /**
+     * Adds what the chat builder recorded about the requests.
+     */
+    public synchronized void addRequestStatistics(@Nullable RequestStatistics statistics, @Nullable TokenUsage usage) {
+        if (statistics != null) {
+            requests += statistics.getRequests();
+            add(Phase.REQUEST_WAIT, statistics.getWaitNanos());
+            add(Phase.TIME_TO_FIRST_BYTE, statistics.getTimeToFirstByteNanos());
+            add(Phase.HTTP, statistics.getHttpNanos());
+            add(Phase.PARSE, statistics.getParseNanos());
+        }
+        if (usage != null) {
+            this.usage = this.usage != null ? this.usage.plus(usage) : usage;
+        }
+    }
+
+    /**
+     * Whether the AI was called - false if the output was up to date.
+     */
+    public synchronized boolean isExecuted() {
+        return executed;
+    }
+
+    protected synchronized void setExecuted(boolean executed) {
+        this.executed = executed;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    protected synchronized void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * The number of HTTP requests, including retries and continuations.
+     */
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * The tokens used, if reported by the server.
+     */
+    @Nullable
+    public synchronized TokenUsage getUsage() {
+        return usage;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TaskStatistics{" +
+                "output=" + output +
+                ", executed=" + executed +
+                ", failed=" + failed +
+                ", requests=" + requests +
+                ", usage=" + usage +
+                ", nanos=" + nanos +
+                '}';
+    }
+}
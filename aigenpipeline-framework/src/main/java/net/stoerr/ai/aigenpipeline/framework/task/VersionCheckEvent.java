@@ -0,0 +1,28 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for {@link AIGenerationTask#hasToBeRun()}: calculating the versions of the inputs and comparing them with
+ * the version marker of the output.
+ */
+@Name("net.stoerr.ai.aigenpipeline.VersionCheck")
+@Label("Version Check")
+@Category({"AIGenPipeline", "Task"})
+@Description("Checks whether the output of a task is up to date")
+public class VersionCheckEvent extends Event {
+
+    @Label("Output")
+    protected String output;
+
+    @Label("Inputs")
+    protected int inputs;
+
+    @Label("Has To Be Run")
+    protected boolean hasToBeRun;
+
+}
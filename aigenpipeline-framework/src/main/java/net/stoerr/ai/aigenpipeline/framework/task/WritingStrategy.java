@@ -3,9 +3,12 @@ package net.stoerr.ai.aigenpipeline.framework.task;
 import java.io.IOException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
- * Ways to write a file and embed the version comment.
+ * Ways to write a file and embed the version comment. The output is written with {@link AIInOut#write(String)}, which
+ * for files and segments goes through {@link FileContentCache#write(java.io.File, String)}: the file is replaced
+ * atomically, and not touched at all if the content didn't change.
  */
 public interface WritingStrategy {
 
@@ -16,6 +19,17 @@ public interface WritingStrategy {
      */
     AIVersionMarker getRecordedVersionMarker(@Nonnull AIInOut output);
 
+    /**
+     * A writer that writes a streamed response into a preview file next to the output while it arrives, or null if
+     * that isn't supported for this output. The final content is written with {@link #write(AIInOut, String, String)}
+     * afterwards.
+     * By default only supported for plain files, since a segment would need a rewrite of the whole file for each part.
+     */
+    @Nullable
+    default ProgressiveOutputWriter progressiveWriter(@Nonnull AIInOut output) {
+        return output instanceof AIInOut.AIFileInOut ? new ProgressiveOutputWriter(output.getFile()) : null;
+    }
+
     /**
      * Writes the raw file without the cersion comment.
      */
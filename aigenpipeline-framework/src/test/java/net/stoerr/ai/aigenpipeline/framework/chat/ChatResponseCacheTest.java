@@ -0,0 +1,94 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChatResponseCacheTest {
+
+    private final Path dir = Paths.get("target/test-responsecache");
+
+    @Before
+    public void setUp() throws IOException {
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(64, ChatResponseCache.key("a", "b").length());
+        assertEquals(ChatResponseCache.key("a", "b"), ChatResponseCache.key("a", "b"));
+        assertNotEquals(ChatResponseCache.key("a", "b"), ChatResponseCache.key("ab", ""));
+    }
+
+    @Test
+    public void testLruEviction() throws IOException {
+        ChatResponseCache cache = new ChatResponseCache(dir, 25);
+        assertNull(cache.get("k1"));
+        cache.put("k1", "0123456789");
+        cache.put("k2", "0123456789");
+        setLastModified("k1", 1000);
+        setLastModified("k2", 2000);
+        assertEquals("0123456789", cache.get("k1")); // makes k1 the most recently used
+        cache.put("k3", "0123456789");
+        assertEquals("0123456789", cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertEquals("0123456789", cache.get("k3"));
+    }
+
+    @Test
+    public void testListsDirectoryOnlyIfLimitMayBeExceeded() throws IOException {
+        AtomicInteger evictions = new AtomicInteger();
+        ChatResponseCache cache = new ChatResponseCache(dir, 35) {
+            @Override
+            protected synchronized void evict() throws IOException {
+                evictions.incrementAndGet();
+                super.evict();
+            }
+        };
+        cache.put("k1", "0123456789");
+        cache.put("k2", "0123456789");
+        cache.put("k3", "0123456789");
+        assertEquals(1, evictions.get());
+        setLastModified("k1", 1000);
+        cache.put("k4", "0123456789");
+        assertEquals(2, evictions.get());
+        assertNull(cache.get("k1"));
+        assertEquals("0123456789", cache.get("k4"));
+    }
+
+    private void setLastModified(String key, long millis) throws IOException {
+        Files.setLastModifiedTime(dir.resolve(key + ChatResponseCache.SUFFIX), FileTime.fromMillis(millis));
+    }
+
+    @Test
+    public void testCachedResponseNeedsNoRequest() throws Exception {
+        ChatResponseCache cache = new ChatResponseCache(dir, ChatResponseCache.DEFAULT_MAX_SIZE);
+        // nothing listens there, so the request would fail
+        String url = "http://localhost:1/v1/chat/completions";
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.url(url).userMsg("Say Hi!");
+        chatBuilder.responseCache(cache);
+        cache.put(ChatResponseCache.key(url, chatBuilder.toJson()), "Hi!");
+        assertEquals("Hi!", chatBuilder.execute());
+        StringBuilder streamed = new StringBuilder();
+        assertEquals("Hi!", chatBuilder.executeStreaming(streamed::append));
+        assertEquals("Hi!", streamed.toString());
+    }
+
+}
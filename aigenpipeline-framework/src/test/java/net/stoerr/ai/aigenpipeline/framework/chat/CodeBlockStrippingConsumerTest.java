@@ -0,0 +1,61 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.util.regex.Matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodeBlockStrippingConsumerTest {
+
+    /**
+     * Feeds the text in chunks of the given size and returns what arrives at the delegate.
+     */
+    private String stream(String text, int chunkSize, boolean trim) {
+        StringBuilder result = new StringBuilder();
+        CodeBlockStrippingConsumer consumer = new CodeBlockStrippingConsumer(result::append, trim);
+        for (int i = 0; i < text.length(); i += chunkSize) {
+            consumer.accept(text.substring(i, Math.min(text.length(), i + chunkSize)));
+        }
+        consumer.finish();
+        return result.toString();
+    }
+
+    /**
+     * What {@link OpenAIChatBuilderImpl#extractResponse(String)} does with a complete response.
+     */
+    private String expected(String text, boolean trim) {
+        String content = trim ? text.trim() : text;
+        Matcher matcher = new OpenAIChatBuilderImpl().CODEBLOCK_PATTERN.matcher(content);
+        return matcher.matches() ? matcher.group(1) : content;
+    }
+
+    @Test
+    public void testSameResultAsPattern() {
+        String[] texts = {
+                "Hello world",
+                "  Hello\n world \n\n",
+                "```java\npublic class Foo {}\n```",
+                "\n```\nsome ``` text\n\n```  \n",
+                "```md\n# Title\n\nSome `code` and ``more``.\n``` ",
+                "Text with ``` in the middle\n```",
+                "```",
+                "``",
+                "",
+                "`inline` code",
+        };
+        for (String text : texts) {
+            for (boolean trim : new boolean[]{true, false}) {
+                for (int chunkSize = 1; chunkSize <= text.length() + 1; chunkSize++) {
+                    Assert.assertEquals("'" + text + "' chunk " + chunkSize + " trim " + trim,
+                            expected(text, trim), stream(text, chunkSize, trim));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnclosedFence() {
+        Assert.assertEquals("some code", stream("```java\nsome code", 3, true));
+    }
+
+}
@@ -0,0 +1,32 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class HttpClientProviderTest {
+
+    @Test
+    public void testClientIsShared() {
+        HttpClientProvider provider = new HttpClientProvider()
+                .connectTimeout(Duration.ofSeconds(5))
+                .version(HttpClient.Version.HTTP_2);
+        HttpClient client = provider.getClient();
+        assertSame(client, provider.getClient());
+        assertEquals(HttpClient.Version.HTTP_2, client.version());
+        assertEquals(Duration.ofSeconds(5), client.connectTimeout().orElseThrow());
+    }
+
+    @Test
+    public void testNoChangesAfterCreation() {
+        HttpClientProvider provider = new HttpClientProvider();
+        provider.getClient();
+        assertThrows(IllegalStateException.class, () -> provider.connectTimeout(Duration.ofSeconds(1)));
+    }
+
+}
@@ -1,11 +1,78 @@
 package net.stoerr.ai.aigenpipeline.framework.chat;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 public class OpenAIChatBuilderImplTest {
 
+    protected static final String OPENAI_RESPONSE = "{\"choices\": [{\"message\": {\"role\": \"assistant\", " +
+            "\"content\": \"Hi again!\"}, \"finish_reason\": \"stop\"}], " +
+            "\"usage\": {\"prompt_tokens\": 12, \"completion_tokens\": 3, \"total_tokens\": 15}}";
+
+    protected static final String OPENAI_STREAM_RESPONSE =
+            "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}\n\n" +
+            "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"```java\\nHi\"}}]}\n\n" +
+            "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\" again!\\n`\"}}]}\n\n" +
+            "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"``\"}}]}\n\n" +
+            "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n" +
+            "data: [DONE]\n\n";
+
+    protected HttpServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Starts a local server answering with the given status and body; returns the URL for it.
+     */
+    protected String startServer(int status, String body) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> respond(exchange, status, body));
+        server.start();
+        return "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+    }
+
+    protected void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
     @Test
     public void testToJson() {
         OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
@@ -31,6 +98,322 @@ public class OpenAIChatBuilderImplTest {
                 "}", actualJson);
     }
 
+    @Test
+    public void testExecuteWithLocalServer() throws Exception {
+        String url = startServer(200, OPENAI_RESPONSE);
+        Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().url(url).userMsg("Say Hi again!").execute());
+        Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().url(url).userMsg("Say Hi again!").executeAsync().get());
+    }
+
+    @Test
+    public void testResponseIsCached() throws Exception {
+        String url = startServer(200, OPENAI_RESPONSE);
+        Path dir = Paths.get("target/test-responsecache-server");
+        if (Files.exists(dir)) { // an entry from an earlier run would make the test pass without a request
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        ChatResponseCache cache = new ChatResponseCache(dir, 1000);
+        Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().responseCache(cache).url(url).userMsg("Hi").execute());
+        server.stop(0);
+        server = null;
+        // is not sent again
+        Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().responseCache(cache).url(url).userMsg("Hi").execute());
+    }
+
+    @Test
+    public void testRetryOnRateLimit() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            if (calls.incrementAndGet() <= 2) {
+                exchange.getResponseHeaders().add("retry-after-ms", "10");
+                respond(exchange, calls.get() == 1 ? 429 : 529, "{\"error\": \"overloaded\"}");
+            } else {
+                respond(exchange, 200, OPENAI_RESPONSE);
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+        Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().url(url).userMsg("Hi").execute());
+        Assert.assertEquals(3, calls.get());
+
+        calls.set(0);
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class,
+                () -> new OpenAIChatBuilderImpl().retryPolicy(new RetryPolicy().maxRetries(1)).url(url).userMsg("Hi").execute());
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("529"));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testRateLimitedRequestsAndUsage() throws Exception {
+        String url = startServer(200, OPENAI_RESPONSE);
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl().rateLimits(600, 100000);
+        chatBuilder.url(url).userMsg("Say Hi again!");
+        Assert.assertEquals("Hi again!", chatBuilder.execute());
+        Assert.assertEquals(15, chatBuilder.getUsage().getTotalTokens());
+    }
+
+    @Test
+    public void testRateLimiterCorrectedPerRequestPart() throws Exception {
+        List<String> requests = new ArrayList<>();
+        String url = startContinuationServer(requests,
+                "{\"choices\": [{\"message\": {\"content\": \"First part, \"}, \"finish_reason\": \"length\"}], " +
+                        "\"usage\": {\"prompt_tokens\": 10, \"completion_tokens\": 5}}",
+                "{\"choices\": [{\"message\": {\"content\": \"second part.\"}, \"finish_reason\": \"stop\"}]}");
+        List<long[]> reservations = new ArrayList<>();
+        List<long[]> corrections = new ArrayList<>();
+        RateLimiter limiter = new RateLimiter(null, 100000) {
+            @Override
+            public synchronized Duration reserve(long estimatedTokens) {
+                reservations.add(new long[]{estimatedTokens});
+                return super.reserve(estimatedTokens);
+            }
+
+            @Override
+            public synchronized void correct(long estimatedTokens, long actualTokens) {
+                corrections.add(new long[]{estimatedTokens, actualTokens});
+                super.correct(estimatedTokens, actualTokens);
+            }
+        };
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl() {
+            @Override
+            protected RateLimiter rateLimiter() {
+                return limiter;
+            }
+        };
+        chatBuilder.continuations(1).maxTokens(100).url(url).userMsg("Write two parts.");
+        Assert.assertEquals("First part, second part.", chatBuilder.execute());
+        Assert.assertEquals(2, reservations.size());
+        Assert.assertEquals(2, corrections.size());
+        // the continuation request contains the first part and the continuation prompt
+        Assert.assertTrue(reservations.get(1)[0] > reservations.get(0)[0] + 5);
+        Assert.assertArrayEquals(new long[]{reservations.get(0)[0], 15}, corrections.get(0));
+        // no usage reported: the reservation for the maximum output tokens is given back anyway
+        Assert.assertEquals(reservations.get(1)[0], corrections.get(1)[0]);
+        Assert.assertTrue(corrections.get(1)[1] < reservations.get(1)[0] - 90);
+    }
+
+    @Test
+    public void testRequestStatistics() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            if (calls.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().add("retry-after-ms", "20");
+                respond(exchange, 529, "{\"error\": \"overloaded\"}");
+            } else {
+                respond(exchange, 200, OPENAI_RESPONSE);
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.url(url).userMsg("Hi");
+        Assert.assertEquals("Hi again!", chatBuilder.execute());
+        RequestStatistics statistics = chatBuilder.getRequestStatistics();
+        Assert.assertEquals(2, statistics.getRequests());
+        Assert.assertTrue(statistics.toString(), statistics.getWaitNanos() >= 20_000_000L);
+        Assert.assertTrue(statistics.toString(), statistics.getTimeToFirstByteNanos() > 0);
+        Assert.assertTrue(statistics.toString(), statistics.getHttpNanos() >= statistics.getTimeToFirstByteNanos());
+        Assert.assertTrue(statistics.toString(), statistics.getParseNanos() > 0);
+    }
+
+    @Test
+    public void testChatRequestEvent() throws Exception {
+        String url = startServer(200, OPENAI_RESPONSE);
+        Path recordingFile = Paths.get("target/test-jfr/chatrequest.jfr");
+        Files.createDirectories(recordingFile.getParent());
+        try (Recording recording = new Recording()) {
+            recording.enable(ChatRequestEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            Assert.assertEquals("Hi again!", new OpenAIChatBuilderImpl().model("testmodel").url(url).userMsg("Hi").execute());
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        Assert.assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        Assert.assertEquals("net.stoerr.ai.aigenpipeline.ChatRequest", event.getEventType().getName());
+        Assert.assertEquals("testmodel", event.getString("model"));
+        Assert.assertEquals("localhost", event.getString("host"));
+        Assert.assertEquals(200, event.getInt("status"));
+        Assert.assertTrue(event.getLong("requestBytes") > 0);
+        Assert.assertEquals(OPENAI_RESPONSE.length(), event.getLong("responseBytes"));
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        String url = startServer(400, "{\"error\": \"bad request\"}");
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class,
+                () -> new OpenAIChatBuilderImpl().url(url).userMsg("Hi").execute());
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("400"));
+    }
+
+    @Test
+    public void testExecuteAsyncWithPseudoModel() throws Exception {
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.model(OpenAIChatBuilderImpl.MODEL_OPENAIJSON).userMsg("Hello, world!");
+        CompletableFuture<String> future = chatBuilder.executeAsync();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(chatBuilder.toJson(), future.get());
+    }
+
+    @Test
+    public void testExecuteStreaming() throws Exception {
+        String url = startServer(200, OPENAI_STREAM_RESPONSE);
+        List<String> deltas = new ArrayList<>();
+        String result = new OpenAIChatBuilderImpl().url(url).userMsg("Say Hi again!").executeStreaming(deltas::add);
+        Assert.assertEquals("Hi again!", result);
+        Assert.assertEquals(List.of("Hi", " again!"), deltas);
+    }
+
+    @Test
+    public void testStreamingUsage() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            JsonObject request = JsonParser.parseString(
+                    new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            String response = OPENAI_STREAM_RESPONSE;
+            JsonObject streamOptions = request.getAsJsonObject("stream_options");
+            if (streamOptions != null && streamOptions.get("include_usage").getAsBoolean()) { // as OpenAI does
+                response = response.replace("data: [DONE]", "data: {\"choices\":[],\"usage\":" +
+                        "{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15}}\n\ndata: [DONE]");
+            }
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.url(url).userMsg("Say Hi again!");
+        Assert.assertEquals("Hi again!", chatBuilder.executeStreaming(delta -> {}));
+        Assert.assertNotNull(chatBuilder.getUsage());
+        Assert.assertEquals(15, chatBuilder.getUsage().getTotalTokens());
+    }
+
+    @Test
+    public void testStreamingLengthExceeded() throws Exception {
+        String url = startServer(200, "data: {\"choices\":[{\"delta\":{\"content\":\"Hi\"}}]}\n\n" +
+                "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"length\"}]}\n\n");
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class,
+                () -> new OpenAIChatBuilderImpl().url(url).userMsg("Hi").executeStreaming(s -> {}));
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("maxTokens"));
+    }
+
+    /**
+     * Starts a server that answers the first requests with the responses cut off at the token limit and then with
+     * the last response; the request bodies are collected.
+     */
+    protected String startContinuationServer(List<String> requests, String... responses) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, 200, responses[Math.min(requests.size(), responses.length) - 1]);
+        });
+        server.start();
+        return "http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions";
+    }
+
+    @Test
+    public void testContinuationOnLengthLimit() throws Exception {
+        List<String> requests = new ArrayList<>();
+        String url = startContinuationServer(requests,
+                "{\"choices\": [{\"message\": {\"content\": \"First part, \"}, \"finish_reason\": \"length\"}], " +
+                        "\"usage\": {\"prompt_tokens\": 10, \"completion_tokens\": 5}}",
+                "{\"choices\": [{\"message\": {\"content\": \"second part.\"}, \"finish_reason\": \"stop\"}], " +
+                        "\"usage\": {\"prompt_tokens\": 20, \"completion_tokens\": 3}}");
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl().continuations(2);
+        chatBuilder.url(url).userMsg("Write two parts.");
+        Assert.assertEquals("First part, second part.", chatBuilder.execute());
+        Assert.assertEquals(2, requests.size());
+        Assert.assertTrue(requests.get(1), requests.get(1).contains("\"content\": \"First part, \""));
+        Assert.assertTrue(requests.get(1), requests.get(1).contains(OpenAIChatBuilderImpl.CONTINUATION_PROMPT));
+        Assert.assertEquals(38, chatBuilder.getUsage().getTotalTokens());
+        // the builder itself is unchanged
+        Assert.assertFalse(chatBuilder.toJson().contains(OpenAIChatBuilderImpl.CONTINUATION_PROMPT));
+
+        // without continuations, or when they are exhausted, it's an error as before.
+        requests.clear();
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class,
+                () -> new OpenAIChatBuilderImpl().url(url).userMsg("Write two parts.").execute());
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("length"));
+    }
+
+    @Test
+    public void testContinuationWithoutUsageKeepsEarlierUsage() throws Exception {
+        List<String> requests = new ArrayList<>();
+        String url = startContinuationServer(requests,
+                "{\"choices\": [{\"message\": {\"content\": \"First part, \"}, \"finish_reason\": \"length\"}], " +
+                        "\"usage\": {\"prompt_tokens\": 10, \"completion_tokens\": 5}}",
+                "{\"choices\": [{\"message\": {\"content\": \"second part.\"}, \"finish_reason\": \"stop\"}]}");
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl().continuations(1);
+        chatBuilder.url(url).userMsg("Write two parts.");
+        Assert.assertEquals("First part, second part.", chatBuilder.execute());
+        Assert.assertEquals(15, chatBuilder.getUsage().getTotalTokens());
+    }
+
+    @Test
+    public void testClaudeStreamingContinuationKeepsWhitespace() throws Exception {
+        List<String> requests = new ArrayList<>();
+        String url = startContinuationServer(requests,
+                "event: content_block_delta\n" +
+                        "data: {\"type\": \"content_block_delta\", \"index\": 0, \"delta\": {\"type\": \"text_delta\", \"text\": \"Line one.\\n\"}}\n\n" +
+                        "event: message_delta\n" +
+                        "data: {\"type\": \"message_delta\", \"delta\": {\"stop_reason\": \"max_tokens\"}}\n\n",
+                "event: content_block_delta\n" +
+                        "data: {\"type\": \"content_block_delta\", \"index\": 0, \"delta\": {\"type\": \"text_delta\", \"text\": \"Line two.\"}}\n\n" +
+                        "event: message_delta\n" +
+                        "data: {\"type\": \"message_delta\", \"delta\": {\"stop_reason\": \"end_turn\"}}\n\n");
+        List<String> deltas = new ArrayList<>();
+        // the query makes the builder treat the URL as Anthropic
+        String result = new OpenAIChatBuilderImpl().continuations(1).key("testkey")
+                .url(url + "?api=//api.anthropic.com/").userMsg("Write two lines.").executeStreaming(deltas::add);
+        Assert.assertEquals("Line one.\nLine two.", result);
+        Assert.assertEquals(result, String.join("", deltas));
+        Assert.assertEquals(2, requests.size());
+        // Anthropic rejects trailing whitespace in the assistant message to continue
+        Assert.assertTrue(requests.get(1), requests.get(1).contains("\"content\": \"Line one.\""));
+    }
+
+    @Test
+    public void testStreamingContinuation() throws Exception {
+        List<String> requests = new ArrayList<>();
+        String url = startContinuationServer(requests,
+                "data: {\"choices\":[{\"delta\":{\"content\":\"```\\nHi\"}}]}\n\n" +
+                        "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"length\"}]}\n\n",
+                "data: {\"choices\":[{\"delta\":{\"content\":\" again!\\n```\"}}]}\n\n" +
+                        "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n");
+        List<String> deltas = new ArrayList<>();
+        String result = new OpenAIChatBuilderImpl().continuations(1).url(url).userMsg("Say Hi again!")
+                .executeStreaming(deltas::add);
+        Assert.assertEquals("Hi again!", result);
+        Assert.assertEquals("Hi again!", String.join("", deltas));
+        Assert.assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testStreamingErrorStatus() throws Exception {
+        String url = startServer(429, "{\"error\": \"rate limited\"}");
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class,
+                () -> new OpenAIChatBuilderImpl().retryPolicy(RetryPolicy.none()).url(url).userMsg("Hi").executeStreaming(s -> {}));
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("429") && e.getMessage().contains("rate limited"));
+    }
+
+    @Test
+    public void testStreamingRequest() {
+        OpenAIChatBuilderImpl chatBuilder = new OpenAIChatBuilderImpl();
+        chatBuilder.model("test-model").userMsg("Hello");
+        OpenAIChatBuilderImpl.ChatCompletionRequest request = chatBuilder.makeRequest();
+        request.stream = true;
+        Assert.assertTrue(OpenAIChatBuilderImpl.gson.toJson(request).contains("\"stream\": true"));
+        Assert.assertFalse(chatBuilder.toJson().contains("stream"));
+    }
+
     /**
      * Works only if OPEN_API_KEY is set in the environment.
      */
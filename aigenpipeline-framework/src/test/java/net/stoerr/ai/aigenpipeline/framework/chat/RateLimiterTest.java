@@ -0,0 +1,53 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testBucket() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(60, 0); // one per second
+        for (int i = 0; i < 60; i++) {
+            assertEquals(0, bucket.take(1, 0));
+        }
+        assertEquals(SECOND, bucket.take(1, 0));
+        assertEquals(SECOND, bucket.take(1, SECOND)); // one refilled, but now two are in debt
+        bucket.give(5, SECOND);
+        assertEquals(0, bucket.take(1, SECOND));
+        // never more than the capacity is collected
+        assertEquals(0, bucket.take(60, 1000 * SECOND));
+        assertEquals(SECOND, bucket.take(1, 1000 * SECOND));
+    }
+
+    @Test
+    public void testReserveAndCorrect() {
+        RateLimiter limiter = new RateLimiter(null, 6000);
+        assertEquals(Duration.ZERO, limiter.reserve(6000));
+        Duration wait = limiter.reserve(100);
+        assertTrue(wait.toString(), wait.toMillis() > 900 && wait.toMillis() <= 1000);
+        limiter.correct(6000, 1000); // the first request used much less than estimated
+        assertEquals(Duration.ZERO, limiter.reserve(100));
+    }
+
+    @Test
+    public void testSharedPerUrlAndModel() {
+        RateLimiter limiter = RateLimiter.get("http://localhost/test", "m1", 10, null);
+        assertSame(limiter, RateLimiter.get("http://localhost/test", "m1", 10, null));
+        assertTrue(limiter != RateLimiter.get("http://localhost/test", "m2", 10, null));
+    }
+
+    @Test
+    public void testEstimate() {
+        assertEquals(1 + 100, RateLimiter.estimateTokens(4, 100));
+        assertEquals(250 + 2048, RateLimiter.estimateTokens(1000, 2048));
+    }
+
+}
@@ -0,0 +1,61 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy();
+    private final Instant now = Instant.parse("2024-05-01T10:00:00Z");
+
+    private Duration requested(String... headerPairs) {
+        Map<String, List<String>> map = new java.util.HashMap<>();
+        for (int i = 0; i < headerPairs.length; i += 2) {
+            map.put(headerPairs[i], List.of(headerPairs[i + 1]));
+        }
+        return policy.requestedDelay(HttpHeaders.of(map, (k, v) -> true), now);
+    }
+
+    @Test
+    public void testRequestedDelay() {
+        assertNull(requested());
+        assertEquals(Duration.ofSeconds(7), requested("retry-after", "7"));
+        assertEquals(Duration.ofMillis(250), requested("retry-after-ms", "250", "retry-after", "1"));
+        assertEquals(Duration.ofSeconds(30), requested("retry-after", "Wed, 01 May 2024 10:00:30 GMT"));
+        assertEquals(Duration.ofSeconds(360), requested(
+                "x-ratelimit-remaining-requests", "0", "x-ratelimit-reset-requests", "6m0s",
+                "x-ratelimit-remaining-tokens", "1000", "x-ratelimit-reset-tokens", "10m"));
+        assertEquals(Duration.ofSeconds(12), requested(
+                "anthropic-ratelimit-tokens-remaining", "0", "anthropic-ratelimit-tokens-reset", "2024-05-01T10:00:12Z"));
+    }
+
+    @Test
+    public void testParseDuration() {
+        assertEquals(Duration.ofMillis(20), RetryPolicy.parseDuration("20ms"));
+        assertEquals(Duration.ofMillis(3723500), RetryPolicy.parseDuration("1h2m3.5s"));
+        assertNull(RetryPolicy.parseDuration("soon"));
+    }
+
+    @Test
+    public void testBackoffAndBudget() {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Duration delay = policy.retryDelay(attempt, null, new IOException("connection reset"), Duration.ZERO);
+            long max = 1000L << attempt;
+            assertTrue(delay.toString(), delay.toMillis() >= max / 2 && delay.toMillis() <= max);
+        }
+        assertNull(policy.retryDelay(3, null, new IOException("connection reset"), Duration.ZERO));
+        assertNull(policy.retryDelay(0, null, new IllegalArgumentException("bug"), Duration.ZERO));
+        assertNull(policy.retryDelay(0, null, new IOException("connection reset"), Duration.ofMinutes(5)));
+    }
+
+}
@@ -0,0 +1,69 @@
+package net.stoerr.ai.aigenpipeline.framework.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingResponseParserTest {
+
+    private final List<String> deltas = new ArrayList<>();
+
+    private StreamingResponseParser parse(String... lines) {
+        StreamingResponseParser parser = new StreamingResponseParser(deltas::add);
+        for (String line : lines) {
+            parser.onNext(line);
+        }
+        parser.onComplete();
+        return parser;
+    }
+
+    @Test
+    public void testAnthropicFormat() {
+        StreamingResponseParser parser = parse(
+                "event: message_start",
+                "data: {\"type\": \"message_start\", \"message\": {\"id\": \"msg_1\", \"content\": [], \"usage\": {\"input_tokens\": 25, \"output_tokens\": 1}}}",
+                "",
+                "event: content_block_start",
+                "data: {\"type\": \"content_block_start\", \"index\": 0, \"content_block\": {\"type\": \"text\", \"text\": \"\"}}",
+                "",
+                "event: ping",
+                "data: {\"type\": \"ping\"}",
+                "",
+                "event: content_block_delta",
+                "data: {\"type\": \"content_block_delta\", \"index\": 0, \"delta\": {\"type\": \"text_delta\", \"text\": \"Hello\"}}",
+                "",
+                "event: content_block_delta",
+                "data: {\"type\": \"content_block_delta\", \"index\": 0, \"delta\": {\"type\": \"text_delta\", \"text\": \" world\"}}",
+                "",
+                "event: message_delta",
+                "data: {\"type\": \"message_delta\", \"delta\": {\"stop_reason\": \"end_turn\"}, \"usage\": {\"output_tokens\": 2}}",
+                "",
+                "event: message_stop",
+                "data: {\"type\": \"message_stop\"}");
+        parser.checkErrors();
+        Assert.assertEquals("Hello world", parser.getContent());
+        Assert.assertEquals("end_turn", parser.getFinishReason());
+        Assert.assertEquals(List.of("Hello", " world"), deltas);
+        Assert.assertEquals(25, parser.getUsage().getInputTokens());
+        Assert.assertEquals(2, parser.getUsage().getOutputTokens());
+    }
+
+    @Test
+    public void testAnthropicError() {
+        StreamingResponseParser parser = parse(
+                "event: error",
+                "data: {\"type\": \"error\", \"error\": {\"type\": \"overloaded_error\", \"message\": \"Overloaded\"}}",
+                "");
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class, parser::checkErrors);
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("Overloaded"));
+    }
+
+    @Test
+    public void testInvalidData() {
+        StreamingResponseParser parser = parse("data: {broken", "");
+        Assert.assertThrows(IllegalStateException.class, parser::checkErrors);
+    }
+
+}
@@ -1,6 +1,8 @@
 package net.stoerr.ai.aigenpipeline.framework.task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -8,8 +10,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -82,6 +86,65 @@ public class AIGenerationTaskTest {
         assertEquals(Files.readString(expectsDir.resolve("explanation.txt")).trim(), result.trim());
     }
 
+    @Test
+    public void testExecuteAsync() throws Exception {
+        AIGenerationTask task = new AIGenerationTask();
+
+        task.addPrompt(AIInOut.of(inputDir.resolve("prompt.txt").toFile()));
+        task.addInput(AIInOut.of(inputDir.resolve("input.txt").toFile()));
+        Path outFile = tempDir.resolve("outputAsync.txt");
+        task.setSystemMessage(AIInOut.of(inputDir.resolve("sysmsg.txt").toFile()));
+        task.setOutput(AIInOut.of(outFile.toFile()));
+        task.maxTokens(1000);
+
+        CompletableFuture<AIGenerationTask> future = task.executeAsync(MockAIChatBuilder::new, new File("."));
+        assertSame(task, future.get());
+        assertEquals(Files.readString(expectsDir.resolve("output.txt")), Files.readString(outFile));
+
+        assertTrue(task.executeAsync(MockAIChatBuilder::new, new File(".")).isDone());
+    }
+
+    @Test
+    public void testExecuteStreaming() throws Exception {
+        AIGenerationTask task = new AIGenerationTask();
+
+        task.addPrompt(AIInOut.of(inputDir.resolve("prompt.txt").toFile()));
+        task.addInput(AIInOut.of(inputDir.resolve("input.txt").toFile()));
+        Path outFile = tempDir.resolve("outputStreaming.txt");
+        Files.deleteIfExists(outFile);
+        task.setSystemMessage(AIInOut.of(inputDir.resolve("sysmsg.txt").toFile()));
+        task.setOutput(AIInOut.of(outFile.toFile()));
+        task.maxTokens(1000);
+        task.setStreaming(true);
+
+        task.execute(MockAIChatBuilder::new, new File("."));
+        assertEquals(Files.readString(expectsDir.resolve("output.txt")), Files.readString(outFile));
+        assertFalse(Files.exists(tempDir.resolve("outputStreaming.txt" + ProgressiveOutputWriter.SUFFIX)));
+    }
+
+    @Test
+    public void testProgressiveWriterLeavesOutputAlone() throws Exception {
+        Path outFile = tempDir.resolve("outputProgressive.txt");
+        Files.writeString(outFile, "previous");
+        FileTime mtime = FileTime.fromMillis(System.currentTimeMillis() - 10000);
+        Files.setLastModifiedTime(outFile, mtime);
+        ProgressiveOutputWriter writer = new ProgressiveOutputWriter(outFile.toFile());
+        writer.accept("new ");
+        writer.accept("content");
+        assertEquals("new content", Files.readString(writer.getPreviewFile().toPath()));
+        assertEquals("previous", Files.readString(outFile));
+        writer.abort();
+        assertEquals("previous", Files.readString(outFile));
+        assertEquals(mtime, Files.getLastModifiedTime(outFile));
+        assertFalse(writer.getPreviewFile().exists());
+
+        writer = new ProgressiveOutputWriter(outFile.toFile());
+        writer.accept("new content");
+        writer.close();
+        assertEquals("previous", Files.readString(outFile));
+        assertFalse(writer.getPreviewFile().exists());
+    }
+
     @Test
     public void testVersionExtraction() throws Exception {
         AIGenerationTask task = new AIGenerationTask();
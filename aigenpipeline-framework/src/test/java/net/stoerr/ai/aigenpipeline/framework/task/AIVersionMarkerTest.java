@@ -1,6 +1,12 @@
 package net.stoerr.ai.aigenpipeline.framework.task;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -64,4 +70,54 @@ public class AIVersionMarkerTest {
         Assert.assertNull(result);
     }
 
+    /**
+     * The original implementation of {@link AIVersionMarker#shaHash(String)}, which must give exactly the same results.
+     */
+    private static String referenceShaHash(String content) throws Exception {
+        String condensedWhitespace = content.replaceAll("\\s+", " ");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = digest.digest(condensedWhitespace.getBytes(StandardCharsets.UTF_8));
+        long hashNumber = ((hash[3] * 256L + hash[2]) * 256L + hash[1]) * 256L + hash[0];
+        String hexString = "00000000" + Long.toHexString(Math.abs(hashNumber));
+        return hexString.substring(hexString.length() - 8);
+    }
+
+    @Test
+    public void testShaHashIsUnchanged() throws Exception {
+        String[] samples = {"", " ", "\t\n\r\u000B\f x \n\n", "äöü ß € 漢字 \uD83D\uDE00",
+                "unpaired \uD800 high", "unpaired \uDC00 low", "end \uD83D", "\u00A0 nbsp \u2003 not collapsed"};
+        for (String sample : samples) {
+            Assert.assertEquals(sample, referenceShaHash(sample), AIVersionMarker.shaHash(sample));
+        }
+        Random random = new Random(42);
+        char[] chars = {'a', ' ', '\n', '\t', 'ä', '€', '\uD83D', '\uDE00', '\r', 'Z'};
+        for (int n = 0; n < 200; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(n < 190 ? 100 : 20000);
+            for (int i = 0; i < length; i++) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+            String sample = sb.toString();
+            Assert.assertEquals(referenceShaHash(sample), AIVersionMarker.shaHash(sample));
+        }
+    }
+
+    @Test
+    public void testShaHashOfFile() throws Exception {
+        Path dir = Paths.get("target/test-shahash");
+        Files.createDirectories(dir);
+        Random random = new Random(7);
+        String[] words = {"word", " ", "\n\n", "\t", "ä€漢", "\uD83D\uDE00", "\r\n"};
+        for (int n = 0; n < 20; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(n < 15 ? 50 : 10000);
+            for (int i = 0; i < length; i++) {
+                sb.append(words[random.nextInt(words.length)]);
+            }
+            Path file = dir.resolve("file" + n + ".txt");
+            Files.writeString(file, sb.toString());
+            Assert.assertEquals(referenceShaHash(sb.toString()), AIVersionMarker.shaHash(file));
+        }
+    }
+
 }
@@ -0,0 +1,104 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileContentCacheTest {
+
+    private final Path dir = Paths.get("target/test-filecontentcache");
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(dir);
+        FileContentCache.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        FileContentCache.setEnabled(false);
+    }
+
+    @Test
+    public void testReadIsCachedAndWriteUpdates() throws IOException {
+        File file = dir.resolve("a.txt").toFile();
+        Files.writeString(file.toPath(), "first");
+        AIInOut inOut = AIInOut.of(file);
+        String content = inOut.read();
+        assertEquals("first", content);
+        assertSame(content, inOut.read());
+        assertEquals(AIVersionMarker.shaHash("first"), inOut.contentHash());
+
+        inOut.write("second version");
+        assertEquals("second version", AIInOut.of(file).read());
+        assertEquals(AIVersionMarker.shaHash("second version"), AIInOut.of(file).contentHash());
+    }
+
+    @Test
+    public void testExternalChangeIsNoticed() throws IOException {
+        File file = dir.resolve("b.txt").toFile();
+        Files.writeString(file.toPath(), "old");
+        assertEquals("old", AIInOut.of(file).read());
+        Files.writeString(file.toPath(), "changed content");
+        assertEquals("changed content", AIInOut.of(file).read());
+    }
+
+    @Test
+    public void testSegmentWriteUpdates() throws IOException {
+        File file = dir.resolve("c.txt").toFile();
+        Files.writeString(file.toPath(), "start\n// MARK\nold\n// MARK\nend\n");
+        assertEquals("start\n// MARK\nold\n// MARK\nend\n", AIInOut.of(file).read());
+        SegmentedFile segmentedFile = new SegmentedFile(file, ".*MARK.*\n", ".*MARK.*\n");
+        AIInOut.of(segmentedFile, 1).write("new\n");
+        assertEquals("start\n// MARK\nnew\n// MARK\nend\n", AIInOut.of(file).read());
+    }
+
+    @Test
+    public void testWriteIsAtomicAndSkipsIdenticalContent() throws IOException {
+        File file = dir.resolve("d.sh").toFile();
+        Files.writeString(file.toPath(), "echo old");
+        boolean posix = Files.getFileStore(file.toPath()).supportsFileAttributeView(PosixFileAttributeView.class);
+        if (posix) {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        }
+        FileTime oldTime = FileTime.fromMillis(System.currentTimeMillis() - 10000);
+        Files.setLastModifiedTime(file.toPath(), oldTime);
+
+        assertFalse(FileContentCache.write(file, "echo old"));
+        assertEquals(oldTime, Files.getLastModifiedTime(file.toPath()));
+
+        assertTrue(FileContentCache.write(file, "echo new"));
+        assertEquals("echo new", Files.readString(file.toPath()));
+        assertEquals("echo new", AIInOut.of(file).read());
+        if (posix) {
+            assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(), files.filter(p -> p.getFileName().toString().endsWith(".tmp"))
+                    .collect(Collectors.toList()));
+        }
+
+        File newFile = dir.resolve("e.txt").toFile();
+        Files.deleteIfExists(newFile.toPath());
+        assertTrue(FileContentCache.write(newFile, "created"));
+        assertEquals("created", Files.readString(newFile.toPath()));
+    }
+
+}
@@ -0,0 +1,118 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileLookupHelperTest {
+
+    private final Path dir = Paths.get("target/test-filelookuphelper");
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(dir.resolve("sub"));
+    }
+
+    @Test
+    public void testContainsBytesAcrossChunks() throws IOException {
+        byte[] literal = SegmentedFile.AIGENPROMPTSTART.getBytes(StandardCharsets.UTF_8);
+        Path file = dir.resolve("chunks.txt");
+        for (int offset = -literal.length - 1; offset <= 1; offset++) {
+            StringBuilder content = new StringBuilder("x".repeat(FileLookupHelper.SCAN_CHUNKSIZE + offset));
+            content.append(SegmentedFile.AIGENPROMPTSTART).append("abc");
+            Files.writeString(file, content);
+            assertTrue("offset " + offset, FileLookupHelper.containsBytes(file, literal));
+        }
+        Files.writeString(file, "x".repeat(3 * FileLookupHelper.SCAN_CHUNKSIZE) + "AIGenPromptStar");
+        assertFalse(FileLookupHelper.containsBytes(file, literal));
+        Files.writeString(file, "AIGen");
+        assertFalse(FileLookupHelper.containsBytes(file, literal));
+        Files.writeString(file, "AIGenPromptStart(");
+        assertTrue(FileLookupHelper.containsBytes(file, literal));
+    }
+
+    @Test
+    public void testFilesContaining() throws IOException {
+        Files.writeString(dir.resolve("small.md"), "foo\n<!-- AIGenPromptStart(x) -->\nbar");
+        Files.writeString(dir.resolve("sub/large.md"), "ä".repeat(100 * 1024) + "\nAIGenPromptStart(y)\n");
+        Files.writeString(dir.resolve("literalonly.md"), "AIGenPromptStart() does not match the pattern");
+        Files.writeString(dir.resolve("none.md"), "nothing here");
+        Files.write(dir.resolve("binary.md"), new byte[]{'A', 'I', (byte) 0xFF, (byte) 0xFE});
+
+        FileLookupHelper helper = FileLookupHelper.fromPath(dir.toString());
+        List<String> found = helper.filesContaining(".", "**/*.md", SegmentedFile.AIGENPROMPTSTART,
+                        SegmentedFile.REGEX_AIGENPROMPTSTART, true).stream()
+                .map(File::getName).sorted().collect(Collectors.toList());
+        assertEquals(List.of("large.md", "small.md"), found);
+
+        // the variant without literal ignores large files
+        List<String> foundWithoutLiteral = helper.filesContaining(".", "**/*.md",
+                        SegmentedFile.REGEX_AIGENPROMPTSTART, true).stream()
+                .map(File::getName).sorted().collect(Collectors.toList());
+        assertEquals(List.of("small.md"), foundWithoutLiteral);
+    }
+
+    @Test
+    public void testGlobPrefix() {
+        FileLookupHelper.GlobPrefix prefix = FileLookupHelper.GlobPrefix.of("*/docs/*.md");
+        assertTrue(prefix.couldMatchBelow(Paths.get("")));
+        assertTrue(prefix.couldMatchBelow(Paths.get("a")));
+        assertTrue(prefix.couldMatchBelow(Paths.get("a/docs")));
+        assertFalse(prefix.couldMatchBelow(Paths.get("a/src")));
+        assertFalse(prefix.couldMatchBelow(Paths.get("a/docs/x")));
+
+        prefix = FileLookupHelper.GlobPrefix.of("a*/**/site/*.md");
+        assertTrue(prefix.couldMatchBelow(Paths.get("ab/x/y/site")));
+        assertTrue(prefix.couldMatchBelow(Paths.get("ab/site")));
+        assertFalse(prefix.couldMatchBelow(Paths.get("b")));
+
+        assertTrue(FileLookupHelper.GlobPrefix.of("**/*.md").couldMatchBelow(Paths.get("x/y/z")));
+        assertTrue(FileLookupHelper.GlobPrefix.of("{a/b,c}/*.md").couldMatchBelow(Paths.get("x/y/z")));
+        assertTrue(FileLookupHelper.GlobPrefix.of(null).couldMatchBelow(Paths.get("x")));
+    }
+
+    @Test
+    public void testFilesWithPruningAndIgnoreFiles() throws IOException {
+        Path root = Paths.get("target/test-filelookuphelper-walk");
+        for (String file : new String[]{"a/docs/one.md", "a/src/two.md", "b/docs/three.md", "b/docs/sub/four.md",
+                "target/docs/five.md", "c/docs/six.md"}) {
+            Files.createDirectories(root.resolve(file).getParent());
+            Files.writeString(root.resolve(file), "AIGenPromptStart(x)");
+        }
+        Files.writeString(root.resolve(".gitignore"), "target/\n");
+        Files.writeString(root.resolve("c/.aigenpipelineignore"), "six.md\n");
+
+        FileLookupHelper helper = FileLookupHelper.fromPath(root.toString());
+        assertEquals(List.of("a/docs/one.md", "b/docs/three.md", "c/docs/six.md", "target/docs/five.md"),
+                relativeNames(root, helper.files(".", "*/docs/*.md", true)));
+        assertEquals(List.of("a/docs/one.md", "a/src/two.md", "b/docs/sub/four.md", "b/docs/three.md",
+                        "c/docs/six.md", "target/docs/five.md"),
+                relativeNames(root, helper.files(".", "**/*.md", true)));
+
+        helper.respectIgnoreFiles(true);
+        assertEquals(List.of("a/docs/one.md", "b/docs/three.md"),
+                relativeNames(root, helper.files(".", "*/docs/*.md", true)));
+        assertEquals(List.of("a/docs/one.md", "a/src/two.md", "b/docs/sub/four.md", "b/docs/three.md"),
+                relativeNames(root, helper.filesContaining(".", "**/*.md", SegmentedFile.AIGENPROMPTSTART,
+                        SegmentedFile.REGEX_AIGENPROMPTSTART, true)));
+    }
+
+    private List<String> relativeNames(Path root, List<File> files) {
+        Path absoluteRoot = root.toAbsolutePath();
+        return files.stream().map(file -> absoluteRoot.relativize(file.toPath().toAbsolutePath()).toString())
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,62 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IgnoreRulesTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Paths.get("target/test-ignorerules").toAbsolutePath();
+        Files.createDirectories(dir.resolve(".git"));
+        Files.createDirectories(dir.resolve("sub/deeper"));
+        Files.writeString(dir.resolve(".gitignore"), "# comment\n\ntarget/\n*.log\n/build\ndocs/**/*.tmp\n**/gen\n");
+        Files.writeString(dir.resolve(".aigenpipelineignore"), "!important.log\n");
+        Files.writeString(dir.resolve("sub/.gitignore"), "!keep.log\nlocal.txt\n");
+    }
+
+    @Test
+    public void testRules() {
+        IgnoreRules rules = IgnoreRules.forDirectory(dir);
+        assertTrue(rules.isIgnored(dir.resolve(".git"), true));
+        assertTrue(rules.isIgnored(dir.resolve("target"), true));
+        assertFalse(rules.isIgnored(dir.resolve("target"), false)); // only directories
+        assertTrue(rules.isIgnored(dir.resolve("x/target"), true));
+        assertTrue(rules.isIgnored(dir.resolve("a.log"), false));
+        assertFalse(rules.isIgnored(dir.resolve("important.log"), false));
+        assertTrue(rules.isIgnored(dir.resolve("build"), true));
+        assertFalse(rules.isIgnored(dir.resolve("sub/build"), true)); // anchored
+        assertTrue(rules.isIgnored(dir.resolve("docs/a/b/x.tmp"), false));
+        assertFalse(rules.isIgnored(dir.resolve("x.tmp"), false));
+        assertTrue(rules.isIgnored(dir.resolve("gen"), true));
+        assertTrue(rules.isIgnored(dir.resolve("a/b/gen"), true));
+        assertFalse(rules.isIgnored(dir.resolve("readme.md"), false));
+
+        IgnoreRules subRules = rules.forSubdirectory(dir.resolve("sub"));
+        assertFalse(subRules.isIgnored(dir.resolve("sub/keep.log"), false));
+        assertTrue(subRules.isIgnored(dir.resolve("sub/other.log"), false));
+        assertTrue(subRules.isIgnored(dir.resolve("sub/deeper/local.txt"), false));
+        assertFalse(rules.isIgnored(dir.resolve("local.txt"), false));
+        IgnoreRules deeperRules = subRules.forSubdirectory(dir.resolve("sub/deeper"));
+        assertTrue(deeperRules == subRules);
+    }
+
+    @Test
+    public void testRulesFromParentDirectoriesInRepository() {
+        IgnoreRules rules = IgnoreRules.forDirectory(dir.resolve("sub/deeper"));
+        assertTrue(rules.isIgnored(dir.resolve("sub/deeper/a.log"), false));
+        assertFalse(rules.isIgnored(dir.resolve("sub/deeper/keep.log"), false));
+        assertTrue(rules.isIgnored(dir.resolve("sub/deeper/local.txt"), false));
+    }
+
+}
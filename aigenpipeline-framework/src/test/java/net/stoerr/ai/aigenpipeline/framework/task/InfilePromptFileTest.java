@@ -0,0 +1,99 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InfilePromptFileTest {
+
+    private final Path dir = Paths.get("target/test-infilepromptfile");
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(dir);
+    }
+
+    @Test
+    public void sameSegmentsAsSegmentedFile() throws IOException {
+        for (String name : new String[]{"withprompts.md", "noendmarker.md"}) {
+            File file = new File("src/test/resources/infileprompt-test/" + name);
+            SegmentedFile expected = new SegmentedFile(file, SegmentedFile.infilePrompting("tablefromdata"));
+            SegmentedFile prompt = new InfilePromptFile(file).getPrompt("tablefromdata");
+            for (int i = 0; i <= 4; i++) {
+                assertEquals(name + " segment " + i, expected.getSegment(i), prompt.getSegment(i));
+            }
+        }
+    }
+
+    @Test
+    public void writingKeepsOtherPrompts() throws IOException {
+        Path file = dir.resolve("twoprompts.md");
+        Files.writeString(file, "Start\n" +
+                "<!-- AIGenPromptStart(one)\nfirst prompt\nAIGenCommand(one)\n-m copy\nAIGenPromptEnd(one) -->\n" +
+                "old one\n<!-- AIGenEnd(one) -->\n" +
+                "Mentioning AIGenCommand(other) is no separator since there is no start for it\n" +
+                "<!-- AIGenPromptStart(two)\nsecond prompt\nAIGenCommand(two)\nAIGenPromptEnd(two) -->\n" +
+                "old two\n");
+        InfilePromptFile infilePromptFile = new InfilePromptFile(file.toFile());
+        assertEquals(List.of("one", "two"), infilePromptFile.getPromptIds());
+        SegmentedFile one = infilePromptFile.getPrompt("one");
+        SegmentedFile two = infilePromptFile.getPrompt("two");
+        assertEquals("first prompt\n", one.getSegment(1));
+        assertEquals("-m copy\n", one.getSegment(2));
+        assertEquals("", two.getSegment(2));
+        assertEquals("old two\n", two.getSegment(3));
+
+        one.writeSegment(3, "new one\n");
+        two.writeSegment(3, "new two\n");
+        assertEquals("Start\n", new InfilePromptFile(file.toFile()).getPrompt("one").getSegment(0));
+        assertEquals("new one\n", new SegmentedFile(file.toFile(), SegmentedFile.infilePrompting("one")).getSegment(3));
+        assertEquals("new two\n", new SegmentedFile(file.toFile(), SegmentedFile.infilePrompting("two")).getSegment(3));
+        assertThrows(IllegalArgumentException.class, () -> infilePromptFile.getPrompt("other"));
+    }
+
+    @Test
+    public void writesAreDeferredWhileThereArePendingWriters() throws IOException {
+        Path file = dir.resolve("deferred.md");
+        Files.writeString(file, "AIGenPromptStart(one)\nAIGenCommand(one)\nAIGenPromptEnd(one)\nold one\nAIGenEnd(one)\n" +
+                "AIGenPromptStart(two)\nAIGenCommand(two)\nAIGenPromptEnd(two)\nold two\nAIGenEnd(two)\n");
+        String original = Files.readString(file);
+        InfilePromptFile infilePromptFile = new InfilePromptFile(file.toFile());
+        infilePromptFile.addPendingWriter();
+        infilePromptFile.addPendingWriter();
+        infilePromptFile.getPrompt("one").writeSegment(3, "new one\n");
+        infilePromptFile.writerDone();
+        assertEquals(original, Files.readString(file));
+        assertEquals("new one\n", infilePromptFile.getPrompt("one").getSegment(3));
+        infilePromptFile.getPrompt("two").writeSegment(3, "new two\n");
+        assertEquals(original, Files.readString(file));
+        infilePromptFile.writerDone();
+        assertEquals(original.replace("old", "new"), Files.readString(file));
+
+        // without pending writers it's written immediately
+        infilePromptFile.getPrompt("two").writeSegment(3, "newer two\n");
+        assertEquals(original.replace("old one", "new one").replace("old two", "newer two"), Files.readString(file));
+    }
+
+    @Test
+    public void rejectsOverlappingOrIncompleteBlocks() throws IOException {
+        Path file = dir.resolve("broken.md");
+        Files.writeString(file, "AIGenPromptStart(one)\nAIGenCommand(one)\n" +
+                "AIGenPromptStart(two)\nAIGenCommand(two)\nAIGenPromptEnd(two)\nAIGenPromptEnd(one)\n");
+        assertThrows(IllegalArgumentException.class, () -> new InfilePromptFile(file.toFile()));
+        Files.writeString(file, "AIGenPromptStart(one)\nAIGenCommand(one)\n");
+        assertThrows(IllegalArgumentException.class, () -> new InfilePromptFile(file.toFile()));
+        Files.writeString(file, "AIGenPromptStart(one)\nAIGenCommand(one)\nAIGenPromptEnd(one)\nAIGenEnd(one)\n" +
+                "AIGenPromptStart(one)\nAIGenCommand(one)\nAIGenPromptEnd(one)\n");
+        assertThrows(IllegalArgumentException.class, () -> new InfilePromptFile(file.toFile()));
+    }
+
+}
@@ -1,5 +1,8 @@
 package net.stoerr.ai.aigenpipeline.framework.task;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 import net.stoerr.ai.aigenpipeline.framework.chat.AIChatBuilder;
 import net.stoerr.ai.aigenpipeline.framework.chat.OpenAIChatBuilderImpl;
 
@@ -14,4 +17,26 @@ public class MockAIChatBuilder extends OpenAIChatBuilderImpl {
         return "Response to:\n" + toJson().replaceAll("FIXME", "EMCIF");
     }
 
+    @Override
+    public CompletableFuture<String> executeAsync() {
+        return CompletableFuture.completedFuture(execute());
+    }
+
+    /**
+     * Passes the response line by line to the consumer.
+     */
+    @Override
+    public String executeStreaming(Consumer<String> deltaConsumer) {
+        String result = execute();
+        for (String line : result.split("(?<=\n)")) {
+            deltaConsumer.accept(line);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> executeStreamingAsync(Consumer<String> deltaConsumer) {
+        return CompletableFuture.completedFuture(executeStreaming(deltaConsumer));
+    }
+
 }
@@ -0,0 +1,85 @@
+package net.stoerr.ai.aigenpipeline.framework.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentFileIndexTest {
+
+    private final Path dir = Paths.get("target/test-fileindex");
+    private final Path indexFile = dir.resolve("index.txt");
+    private final AtomicInteger computations = new AtomicInteger();
+    private final Function<File, String> compute = f -> {
+        computations.incrementAndGet();
+        return AIVersionMarker.shaHash(AIInOut.of(f).read());
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(dir);
+        Files.deleteIfExists(indexFile);
+    }
+
+    private File writeOldFile(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        return file.toFile();
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotRead() throws IOException {
+        File file = writeOldFile("a.txt", "hello");
+        PersistentFileIndex index = new PersistentFileIndex(indexFile);
+        assertEquals(AIVersionMarker.shaHash("hello"), index.get(file, compute));
+        assertEquals(AIVersionMarker.shaHash("hello"), index.get(file, compute));
+        assertEquals(1, computations.get());
+        index.save();
+
+        PersistentFileIndex reloaded = new PersistentFileIndex(indexFile);
+        assertEquals(AIVersionMarker.shaHash("hello"), reloaded.get(file, compute));
+        assertEquals(1, computations.get());
+
+        writeOldFile("a.txt", "hello world");
+        assertEquals(AIVersionMarker.shaHash("hello world"), reloaded.get(file, compute));
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    public void testRecentlyModifiedFilesAreNotStored() throws IOException {
+        Path file = dir.resolve("recent.txt");
+        Files.writeString(file, "new");
+        PersistentFileIndex index = new PersistentFileIndex(indexFile);
+        index.get(file.toFile(), compute);
+        index.get(file.toFile(), compute);
+        assertEquals(2, computations.get());
+        index.save();
+        assertFalse(Files.exists(indexFile));
+    }
+
+    @Test
+    public void testVersionMarkerFromIndex() throws IOException {
+        File file = writeOldFile("b.txt", "some input");
+        PersistentFileIndex index = new PersistentFileIndex(indexFile);
+        List<String> expected = AIVersionMarker.calculateInputMarkers(List.of(AIInOut.of(file)), List.of());
+        assertEquals(expected, AIVersionMarker.calculateInputMarkers(List.of(AIInOut.of(file)), List.of(), index));
+        index.save();
+        assertTrue(Files.readString(indexFile).contains(file.getCanonicalPath()));
+        assertEquals(expected, AIVersionMarker.calculateInputMarkers(List.of(AIInOut.of(file)), List.of(),
+                new PersistentFileIndex(indexFile)));
+    }
+
+}